@@ -0,0 +1,327 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// bulkImporter class adds groups, users and follows in bulk and tells the engine's listeners once at the end,
+// so front ends update in one batch instead of once per line
+//
+// each line is either CSV or a flat JSON object:
+//   group,<id>[,<parentGroupId>]        {"type":"group","id":"...","parent":"..."}
+//   user,<id>[,<groupId>]               {"type":"user","id":"...","group":"..."}
+//   follow,<followerId>,<followedId>    {"type":"follow","follower":"...","followed":"..."}
+// a missing parent puts the entry under Root; blank lines and lines starting with # are skipped
+public class BulkImporter {
+    private static final int MAX_REPORTED_ERRORS = 20; // keep the summary readable
+
+    private final TwitEngine engine;
+    private final List<Object> added = new ArrayList<>(); // entities registered but not announced yet
+    private final List<String[]> pendingFollows = new ArrayList<>(); // applied once every user exists
+    private final List<String> errors = new ArrayList<>();
+    private int lineNumber;
+    private int importedGroups;
+    private int importedUsers;
+    private int importedFollows;
+    private int rejected;
+
+    // constructor for BulkImporter class
+    public BulkImporter(TwitEngine engine) {
+        this.engine = engine;
+    }
+
+    // import a CSV or JSONL file and publish the result
+    public static BulkImporter importFile(TwitEngine engine, Path file) throws IOException {
+        BulkImporter importer = new BulkImporter(engine);
+        try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            importer.load(in);
+        }
+        importer.publish();
+        return importer;
+    }
+
+    // read definitions line by line
+    public void load(Reader in) throws IOException {
+        BufferedReader reader = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                if (line.startsWith("{")) {
+                    loadJson(line);
+                } else {
+                    loadCsv(line);
+                }
+            } catch (IllegalArgumentException e) {
+                reject(e.getMessage());
+            }
+        }
+    }
+
+    // handle one CSV line
+    private void loadCsv(String line) {
+        String[] fields = line.split(",", -1);
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = fields[i].trim();
+        }
+        String second = fields.length > 1 ? fields[1] : null;
+        String third = fields.length > 2 ? fields[2] : null;
+        switch (fields[0]) {
+            case "group":
+                addGroup(second, third);
+                break;
+            case "user":
+                addUser(second, third);
+                break;
+            case "follow":
+                addFollow(second, third);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown type \"" + fields[0] + "\"");
+        }
+    }
+
+    // handle one JSON line
+    private void loadJson(String line) {
+        Map<String, String> fields = parseJsonObject(line);
+        String type = fields.get("type");
+        if ("group".equals(type)) {
+            addGroup(fields.get("id"), fields.get("parent"));
+        } else if ("user".equals(type)) {
+            addUser(fields.get("id"), fields.get("group"));
+        } else if ("follow".equals(type)) {
+            addFollow(fields.get("follower"), fields.get("followed"));
+        } else {
+            throw new IllegalArgumentException("unknown type \"" + type + "\"");
+        }
+    }
+
+    // create a group under the given parent group, or Root if none
+    public boolean addGroup(String id, String parentId) {
+        return addEntity(new TwitUserGroup(requireId(id)), id, parentId);
+    }
+
+    // create a user under the given group, or Root if none
+    public boolean addUser(String id, String groupId) {
+        return addEntity(new TwitUser(requireId(id)), id, groupId);
+    }
+
+    // queue a follow; it is applied in publish so users may be defined after their follows
+    public void addFollow(String followerId, String followedId) {
+        pendingFollows.add(new String[] { requireId(followerId), requireId(followedId), Integer.toString(lineNumber) });
+    }
+
+    // register the entity under its parent group without telling the listeners yet
+    private boolean addEntity(Object entity, String id, String parentId) {
+        TwitUserGroup parentGroup = engine.getRootGroup();
+        if (parentId != null && !parentId.isEmpty()) {
+            Object parent = engine.findEntity(parentId);
+            if (!(parent instanceof TwitUserGroup)) {
+                reject("unknown group \"" + parentId + "\"");
+                return false;
+            }
+            parentGroup = (TwitUserGroup) parent;
+        }
+        List<Object> registered = engine.registerEntity(entity, id, parentGroup);
+        if (registered == null) {
+            reject("ID \"" + id + "\" is already taken");
+            return false;
+        }
+        added.addAll(registered);
+        if (entity instanceof TwitUser) {
+            importedUsers++;
+        } else {
+            importedGroups++;
+        }
+        return true;
+    }
+
+    // tell the listeners about the new entities in one batch, then apply the queued follows
+    public void publish() {
+        EventJournal.awaitCurrent(); // the users and groups are on disk before anyone hears of them
+        engine.fireEntitiesAdded(new ArrayList<>(added));
+        added.clear();
+        for (String[] follow : pendingFollows) {
+            TwitUser follower = engine.findUserById(follow[0]);
+            TwitUser followed = engine.findUserById(follow[1]);
+            if (follower == null || followed == null) {
+                recordError(follow[2], "unknown user \"" + (follower != null ? follow[1] : follow[0]) + "\"");
+            } else if (engine.addFollow(follower, followed)) {
+                importedFollows++;
+            } else {
+                recordError(follow[2], "\"" + follow[0] + "\" cannot follow \"" + follow[1] + "\"");
+            }
+        }
+        pendingFollows.clear();
+        EventJournal.awaitCurrent(); // and so are the follows before the import returns
+    }
+
+    public int getImportedGroups() {
+        return importedGroups;
+    }
+
+    public int getImportedUsers() {
+        return importedUsers;
+    }
+
+    public int getImportedFollows() {
+        return importedFollows;
+    }
+
+    public int getRejected() {
+        return rejected;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    // describe what was imported and the first rejected lines
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append("Groups: ").append(importedGroups)
+                .append("\nUsers: ").append(importedUsers)
+                .append("\nFollows: ").append(importedFollows)
+                .append("\nRejected: ").append(rejected);
+        for (String error : errors) {
+            summary.append('\n').append(error);
+        }
+        if (rejected > errors.size()) {
+            summary.append("\n...");
+        }
+        return summary.toString();
+    }
+
+    private void reject(String message) {
+        recordError(Integer.toString(lineNumber), message);
+    }
+
+    private void recordError(String line, String message) {
+        rejected++;
+        if (errors.size() < MAX_REPORTED_ERRORS) {
+            errors.add("line " + line + ": " + message);
+        }
+    }
+
+    private static String requireId(String id) {
+        if (id == null || id.isEmpty()) {
+            throw new IllegalArgumentException("missing ID");
+        }
+        return id;
+    }
+
+    // parse a flat JSON object whose values are strings or null
+    static Map<String, String> parseJsonObject(String text) {
+        Map<String, String> fields = new HashMap<>();
+        int[] pos = { skipSpace(text, 0) };
+        expect(text, pos, '{');
+        if (peek(text, pos) == '}') {
+            pos[0]++;
+        } else {
+            while (true) {
+                String key = parseJsonString(text, pos);
+                expect(text, pos, ':');
+                String value;
+                if (text.startsWith("null", pos[0])) {
+                    value = null;
+                    pos[0] += 4;
+                } else {
+                    value = parseJsonString(text, pos);
+                }
+                fields.put(key, value);
+                char next = peek(text, pos);
+                pos[0]++;
+                if (next == '}') {
+                    break;
+                } else if (next != ',') {
+                    throw new IllegalArgumentException("expected , or } at column " + pos[0]);
+                }
+            }
+        }
+        if (skipSpace(text, pos[0]) != text.length()) {
+            throw new IllegalArgumentException("unexpected text after object");
+        }
+        return fields;
+    }
+
+    private static String parseJsonString(String text, int[] pos) {
+        expect(text, pos, '"');
+        StringBuilder value = new StringBuilder();
+        int i = pos[0];
+        while (i < text.length()) {
+            char c = text.charAt(i++);
+            if (c == '"') {
+                pos[0] = i;
+                return value.toString();
+            }
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            if (i >= text.length()) {
+                break;
+            }
+            char escaped = text.charAt(i++);
+            switch (escaped) {
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'u':
+                    if (i + 4 > text.length()) {
+                        throw new IllegalArgumentException("bad escape at column " + i);
+                    }
+                    try {
+                        value.append((char) Integer.parseInt(text.substring(i, i + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("bad escape at column " + i);
+                    }
+                    i += 4;
+                    break;
+                default:
+                    value.append(escaped); // \" \\ and \/
+            }
+        }
+        throw new IllegalArgumentException("unterminated string");
+    }
+
+    private static void expect(String text, int[] pos, char c) {
+        if (peek(text, pos) != c) {
+            throw new IllegalArgumentException("expected " + c + " at column " + (pos[0] + 1));
+        }
+        pos[0]++;
+    }
+
+    // skip whitespace and return the next character, or 0 at the end
+    private static char peek(String text, int[] pos) {
+        pos[0] = skipSpace(text, pos[0]);
+        return pos[0] < text.length() ? text.charAt(pos[0]) : 0;
+    }
+
+    private static int skipSpace(String text, int i) {
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,353 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// concurrencyStress posts, follows, unfollows and attaches users from many threads at once, then checks
+// that every news feed holds exactly the tweets it should, once each and in order, and that
+// the group totals match the feeds, then sweeps inboxes under and over a retention limit and posts to a group
+// before and after a subgroup joins it, checking the feeds again after a restart; exits with status 1 on any
+// mismatch
+// usage: java ConcurrencyStress [threads] [users] [operationsPerThread]
+public class ConcurrencyStress {
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("--reload")) {
+            reload(Paths.get(args[1])); // the restarted half of checkGroupPosts
+            return;
+        }
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int users = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int operations = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+
+        boolean passed = true;
+        TimelineStrategy[] strategies = {TimelineStrategy.push(), TimelineStrategy.pull(), TimelineStrategy.hybrid(20)};
+        for (TimelineStrategy strategy : strategies) {
+            passed &= run(strategy, threads, users, operations);
+        }
+        passed &= checkRetention();
+        passed &= checkGroupPosts();
+        System.exit(passed ? 0 : 1);
+    }
+
+    // run one round of contention under a strategy and verify the result
+    private static boolean run(TimelineStrategy strategy, int threadCount, int userCount, int operations)
+            throws InterruptedException {
+        TwitUser.timelineStrategy = strategy;
+        TwitUserGroup root = new TwitUserGroup("Root");
+        List<TwitUserGroup> groups = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            TwitUserGroup group = new TwitUserGroup("group" + i);
+            (i < 4 ? root : groups.get(i - 4)).addMember(group);
+            groups.add(group);
+        }
+        List<TwitUser> users = new ArrayList<>();
+        for (int i = 0; i < userCount; i++) {
+            users.add(new TwitUser("user" + i));
+        }
+        long firstTweetId = TweetStore.getInstance().getLastId() + 1;
+
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        long started = System.nanoTime();
+        for (int t = 0; t < threadCount; t++) {
+            int threadIndex = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(threadIndex);
+                    try {
+                        start.await();
+                        for (int i = 0; i < operations; i++) {
+                            if (i % threadCount == 0 && threadIndex + i / threadCount * threadCount < userCount) {
+                                // each thread attaches its share of users while the others post and follow
+                                TwitUser user = users.get(threadIndex + i / threadCount * threadCount);
+                                (user.getId().hashCode() % 3 == 0 ? root : groups.get(random.nextInt(groups.size())))
+                                        .addMember(user);
+                            }
+                            TwitUser user = users.get(random.nextInt(users.size()));
+                            int action = random.nextInt(10);
+                            if (action < 3) {
+                                user.follow(users.get(random.nextInt(users.size())));
+                            } else if (action < 4) {
+                                List<TwitUser> followings = user.getFollowings();
+                                if (!followings.isEmpty()) {
+                                    user.unfollow(followings.get(random.nextInt(followings.size())));
+                                }
+                            } else if (action < 8) {
+                                user.postTweet((random.nextBoolean() ? "good " : "plain ") + threadIndex + "-" + i);
+                            } else if (action < 9) {
+                                TwitUserGroup audience = random.nextInt(4) == 0 ? root : groups.get(random.nextInt(groups.size()));
+                                user.postTweetTo(audience, (random.nextBoolean() ? "good " : "plain ") + threadIndex + "-" + i);
+                            } else {
+                                user.getNewsFeedIds(); // concurrent reads
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (!FanoutPipeline.getInstance().awaitIdle(1, TimeUnit.MINUTES)) {
+            System.out.println(strategy + " FAIL  fan-out did not drain");
+            return false;
+        }
+        long elapsed = System.nanoTime() - started;
+        if (failure.get() != null) {
+            failure.get().printStackTrace();
+            return false;
+        }
+        for (TwitUser user : users) {
+            if (user.getParent() == null) {
+                root.addMember(user); // users no thread got to
+            }
+        }
+
+        // expected feed: own tweets, tweets of followed users posted after the follow and group posts made while
+        // the user was below the group; the groups were all attached before the threads started
+        TweetStore store = TweetStore.getInstance();
+        Map<TwitUser, List<Long>> expected = new HashMap<>();
+        for (TwitUser user : users) {
+            expected.put(user, new ArrayList<Long>());
+        }
+        for (long id = firstTweetId; id <= store.getLastId(); id++) {
+            Tweet tweet = store.get(id);
+            expected.get(tweet.author).add(id);
+            if (tweet.audience != null) {
+                for (TwitUser user : users) {
+                    if (user != tweet.author && tweet.audience.contains(user) && user.memberSince < id) {
+                        expected.get(user).add(id);
+                    }
+                }
+                continue;
+            }
+            for (TwitUser follower : tweet.author.getFollowers()) {
+                if (SocialGraph.getInstance().followedSince(follower.graphIndex(), tweet.author.graphIndex()) < id) {
+                    expected.get(follower).add(id);
+                }
+            }
+        }
+
+        int lost = 0;
+        int duplicated = 0;
+        int unexpected = 0;
+        long feedTweets = 0;
+        long positiveTweets = 0;
+        long negativeTweets = 0;
+        for (TwitUser user : users) {
+            long[] feed = user.getNewsFeedIds();
+            List<Long> wanted = expected.get(user);
+            int w = 0;
+            for (int i = 0; i < feed.length; i++) {
+                if (i > 0 && feed[i] <= feed[i - 1]) {
+                    duplicated++;
+                    continue;
+                }
+                while (w < wanted.size() && wanted.get(w) < feed[i]) {
+                    lost++;
+                    w++;
+                }
+                if (w < wanted.size() && wanted.get(w) == feed[i]) {
+                    w++;
+                } else {
+                    unexpected++;
+                }
+                positiveTweets += store.get(feed[i]).isPositive() ? 1 : 0;
+                negativeTweets += store.get(feed[i]).isNegative() ? 1 : 0;
+            }
+            lost += wanted.size() - w;
+            feedTweets += feed.length;
+        }
+        boolean totalsMatch = root.getTotalTweets() == feedTweets && root.getTotalPositiveTweets() == positiveTweets
+                && root.getTotalNegativeTweets() == negativeTweets
+                && root.getTotalUsers() == userCount && root.getTotalGroups() == groups.size() + 1;
+        boolean passed = lost == 0 && duplicated == 0 && unexpected == 0 && totalsMatch;
+        System.out.printf("%-12s %s  tweets=%d feedEntries=%d lost=%d duplicated=%d unexpected=%d totals=%s  %.0f ops/s%n",
+                strategy, passed ? "PASS" : "FAIL", store.getLastId() - firstTweetId + 1, feedTweets, lost, duplicated,
+                unexpected, totalsMatch ? "match" : "MISMATCH", threadCount * (double) operations / (elapsed / 1e9));
+        return passed;
+    }
+
+    // sweep inboxes below, at and above an entry limit in both eviction modes and check what each one keeps
+    private static boolean checkRetention() {
+        TwitUser.timelineStrategy = TimelineStrategy.push();
+        TwitEngine engine = TwitEngine.getInstance();
+        TwitUserGroup group = engine.createGroup("retention", engine.getRootGroup());
+        int limit = 100;
+        int[] sizes = {0, 5, limit, 250};
+        TwitUser[] readers = new TwitUser[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            TwitUser author = engine.createUser("retentionAuthor" + i, group);
+            readers[i] = engine.createUser("retentionReader" + i, group);
+            readers[i].follow(author);
+            readers[i].postTweet("own tweet, older than everything in the inbox");
+            for (int t = 0; t < sizes[i]; t++) {
+                author.postTweet("retained " + t);
+            }
+        }
+        try {
+            FanoutPipeline.getInstance().awaitIdle(1, TimeUnit.MINUTES);
+            TimelineRetention cold = new TimelineRetention(limit, 0, 0, false);
+            cold.sweep();
+            cold.sweep(); // again, with nothing left to evict
+            boolean passed = true;
+            for (int i = 0; i < sizes.length; i++) {
+                passed &= readers[i].inbox.size() == sizes[i] && readers[i].inbox.hotSize() == Math.min(sizes[i], limit)
+                        && readers[i].getNewsFeedIds().length == sizes[i] + 1;
+            }
+            new TimelineRetention(limit, 0, 0, true).sweep();
+            for (int i = 0; i < sizes.length; i++) {
+                // dropping takes only inbox entries, the own tweet stays
+                passed &= readers[i].inbox.size() == Math.min(sizes[i], limit)
+                        && readers[i].getNewsFeedIds().length == Math.min(sizes[i], limit) + 1;
+            }
+            TreeStatistics.Totals recounted = engine.recountTotals(engine.getRootGroup());
+            passed &= recounted.tweets == engine.getRootGroup().getTotalTweets()
+                    && recounted.positiveTweets == engine.getRootGroup().getTotalPositiveTweets();
+            System.out.printf("%-12s %s%n", "retention", passed ? "PASS" : "FAIL");
+            return passed;
+        } catch (RuntimeException | InterruptedException e) {
+            e.printStackTrace();
+            System.out.printf("%-12s FAIL%n", "retention");
+            return false;
+        }
+    }
+
+    // post to a group, attach a subgroup that was built beforehand, post again, and check that only the second
+    // post reaches the subgroup's user, live, in the recounted totals and after a restart from the snapshot;
+    // the subgroup's user is registered with it, and a subgroup with a taken ID is turned away
+    private static boolean checkGroupPosts() {
+        TwitUser.timelineStrategy = TimelineStrategy.push();
+        TwitEngine engine = TwitEngine.getInstance();
+        Path directory = null;
+        try {
+            directory = Files.createTempDirectory("twitapp-stress");
+            TwitStorage storage = TwitStorage.open(engine, directory);
+            TwitUserGroup group = engine.createGroup("groupPosts", engine.getRootGroup());
+            TwitUser author = engine.createUser("groupAuthor", group);
+            TwitUser member = engine.createUser("groupMember", group);
+            TwitUserGroup late = new TwitUserGroup("groupPostsLate");
+            TwitUser lateUser = new TwitUser("groupLateUser");
+            late.addMember(lateUser); // joins its own group before the first post
+            Tweet before = engine.postToGroup(author, group, "good news before the subgroup joined");
+            engine.addGroup(late, group);
+            TwitUserGroup clash = new TwitUserGroup("groupPostsClash");
+            clash.addMember(new TwitUser("groupMember")); // a subgroup whose user's ID is taken joins whole or not at all
+            boolean registered = engine.findEntity("groupLateUser") == lateUser && !engine.addGroup(clash, group)
+                    && engine.findEntity("groupPostsClash") == null && engine.validateIds(engine.getRootGroup());
+            Tweet after = engine.postToGroup(author, group, "good news after the subgroup joined");
+            FanoutPipeline.getInstance().awaitIdle(1, TimeUnit.MINUTES);
+
+            boolean passed = registered && Arrays.equals(lateUser.getNewsFeedIds(), new long[] {after.id})
+                    && Arrays.equals(member.getNewsFeedIds(), new long[] {before.id, after.id});
+            for (TwitUser user : new TwitUser[] {author, member, lateUser}) {
+                passed &= Arrays.equals(user.getNewsFeedIds(), user.getSettledNewsFeedIds());
+            }
+            TreeStatistics.Totals recounted = engine.recountTotals(engine.getRootGroup());
+            passed &= recounted.tweets == engine.getRootGroup().getTotalTweets() && group.getTotalTweets() == 5;
+            List<String> live = describe(engine);
+            storage.close(); // snapshot, then load it in a fresh JVM
+            List<String> restarted = reloaded(directory);
+            passed &= live.equals(restarted);
+            System.out.printf("%-12s %s%s%n", "group posts", passed ? "PASS" : "FAIL",
+                    live.equals(restarted) ? "" : "  live=" + live + " restarted=" + restarted);
+            return passed;
+        } catch (IOException | RuntimeException | InterruptedException e) {
+            e.printStackTrace();
+            System.out.printf("%-12s FAIL%n", "group posts");
+            return false;
+        } finally {
+            deleteTree(directory);
+        }
+    }
+
+    // run the restarted half in a fresh JVM and collect what it saw
+    private static List<String> reloaded(Path directory) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Djava.awt.headless=true");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ConcurrencyStress.class.getName());
+        command.add("--reload");
+        command.add(directory.toString());
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("=")) {
+                    lines.add(line.substring(1));
+                }
+            }
+        }
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException("Reload failed for " + directory);
+        }
+        return lines;
+    }
+
+    // load the stored directory and print the checked feeds and totals
+    private static void reload(Path directory) throws IOException {
+        TwitEngine engine = TwitEngine.getInstance();
+        TwitStorage.open(engine, directory);
+        for (String line : describe(engine)) {
+            System.out.println("=" + line);
+        }
+        EventJournal.setCurrent(null);
+        System.exit(0); // without closing, so the directory is left as it was
+    }
+
+    // the feeds of the users below the group, by ID, and the group's totals
+    private static List<String> describe(TwitEngine engine) {
+        TwitUserGroup group = (TwitUserGroup) engine.findEntity("groupPosts");
+        List<String> lines = new ArrayList<>();
+        for (Object entity : engine.collectEntities(group)) {
+            if (entity instanceof TwitUser) {
+                lines.add(entity + " " + Arrays.toString(((TwitUser) entity).getNewsFeedIds()));
+            }
+        }
+        Collections.sort(lines); // a restored tree lists members in load order
+        TreeStatistics.Totals recounted = engine.recountTotals(group);
+        lines.add("groupPosts tweets=" + group.getTotalTweets() + " recounted=" + recounted.tweets
+                + " positive=" + group.getTotalPositiveTweets());
+        return lines;
+    }
+
+    // delete a temporary directory and its files
+    private static void deleteTree(Path directory) {
+        if (directory == null) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+            Files.delete(directory);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,487 @@
+import javax.swing.SwingUtilities;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// directoryBenchmark measures posting, fan-out, lookups and statistics on synthetic directories, without Swing
+//
+// every combination of the comma-separated parameters runs in its own forked JVM on a freshly generated
+// directory: groups form a random tree, users are spread over the groups and each user follows --follows
+// others picked with Zipf(--zipf) popularity (0 is uniform). Each benchmark runs --warmup untimed and
+// --iterations timed iterations of --time ms and reports the average time per operation.
+// usage: java DirectoryBenchmark [--users 1000,100000] [--groups 100] [--follows 20] [--zipf 0,1.1]
+//                                [--timeline push,pull,hybrid] [--warmup 3] [--iterations 5] [--time 500]
+//                                [--seed 42] [--format json|csv] [--out file] [--fork true|false]
+public class DirectoryBenchmark {
+    private static final String RESULT_PREFIX = "@result\t"; // marks result lines a forked run prints
+    private static final String[] AXES = { "users", "groups", "follows", "zipf", "timeline" };
+
+    private static volatile long sink; // keeps results alive so the JIT cannot drop the work
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("users", "1000,100000");
+        options.put("groups", "100");
+        options.put("follows", "20");
+        options.put("zipf", "0,1.1");
+        options.put("timeline", System.getProperty("twitapp.timeline", "hybrid"));
+        options.put("warmup", "3");
+        options.put("iterations", "5");
+        options.put("time", "500");
+        options.put("seed", "42");
+        options.put("format", "json");
+        options.put("out", "");
+        options.put("fork", "true");
+        options.put("child", "false");
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i].startsWith("--") ? args[i].substring(2) : null;
+            if (name == null || !options.containsKey(name) || i + 1 == args.length) {
+                System.err.println("Unknown or incomplete option " + args[i]);
+                System.exit(2);
+            }
+            options.put(name, args[++i]);
+        }
+
+        if (Boolean.parseBoolean(options.get("child"))) {
+            runChild(options); // one parameter combination, results go to the parent on stdout
+            return;
+        }
+        List<Map<String, String>> combinations = combinations(options);
+        boolean fork = Boolean.parseBoolean(options.get("fork"));
+        if (!fork && combinations.size() > 1) {
+            System.err.println("--fork false needs a single value for each parameter");
+            System.exit(2);
+        }
+        List<Result> results = new ArrayList<>();
+        for (Map<String, String> combination : combinations) {
+            System.err.println("# " + combination);
+            if (fork) {
+                results.addAll(fork(options, combination));
+            } else {
+                System.setProperty("twitapp.timeline", combination.get("timeline")); // before TwitUser loads
+                results.addAll(measure(options, combination, System.err));
+            }
+        }
+        String report = "csv".equals(options.get("format")) ? Result.toCsv(results) : Result.toJson(results);
+        if (options.get("out").isEmpty()) {
+            System.out.print(report);
+        } else {
+            Files.write(Paths.get(options.get("out")), report.getBytes(StandardCharsets.UTF_8));
+            System.err.println("# wrote " + results.size() + " results to " + options.get("out"));
+        }
+    }
+
+    // expand comma-separated parameter values into every combination
+    private static List<Map<String, String>> combinations(Map<String, String> options) {
+        List<Map<String, String>> combinations = new ArrayList<>();
+        combinations.add(new LinkedHashMap<>());
+        for (String axis : AXES) {
+            List<Map<String, String>> expanded = new ArrayList<>();
+            for (Map<String, String> partial : combinations) {
+                for (String value : options.get(axis).split(",")) {
+                    Map<String, String> combination = new LinkedHashMap<>(partial);
+                    combination.put(axis, value.trim());
+                    expanded.add(combination);
+                }
+            }
+            combinations = expanded;
+        }
+        return combinations;
+    }
+
+    // run one combination in a fresh JVM so directories and JIT profiles do not leak between runs
+    private static List<Result> fork(Map<String, String> options, Map<String, String> combination)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        for (String property : System.getProperties().stringPropertyNames()) {
+            if (property.startsWith("twitapp.") && !property.equals("twitapp.timeline")) {
+                command.add("-D" + property + "=" + System.getProperty(property));
+            }
+        }
+        command.add("-Djava.awt.headless=true");
+        command.add("-Dtwitapp.persist=false");
+        command.add("-Dtwitapp.timeline=" + combination.get("timeline"));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(DirectoryBenchmark.class.getName());
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            command.add("--" + option.getKey());
+            command.add(combination.containsKey(option.getKey()) ? combination.get(option.getKey()) : option.getValue());
+        }
+        command.add("--child");
+        command.add("true");
+
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        List<Result> results = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(RESULT_PREFIX)) {
+                    results.add(Result.parse(line.substring(RESULT_PREFIX.length())));
+                } else {
+                    System.err.println(line);
+                }
+            }
+        }
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException("Benchmark run failed for " + combination);
+        }
+        return results;
+    }
+
+    // measure one combination and hand the results to the parent
+    private static void runChild(Map<String, String> options) throws Exception {
+        PrintStream out = System.out;
+        for (Result result : measure(options, options, System.err)) {
+            out.println(RESULT_PREFIX + result.format());
+        }
+        out.flush();
+        System.exit(0); // do not wait for the event thread to wind down
+    }
+
+    // build the directory for one combination and run every benchmark on it
+    private static List<Result> measure(Map<String, String> options, Map<String, String> params, PrintStream log)
+            throws Exception {
+        Random random = new Random(Long.parseLong(options.get("seed")));
+        Directory directory = build(Integer.parseInt(params.get("users")), Integer.parseInt(params.get("groups")),
+                Integer.parseInt(params.get("follows")), Double.parseDouble(params.get("zipf")), random, log);
+
+        int warmup = Integer.parseInt(options.get("warmup"));
+        int iterations = Integer.parseInt(options.get("iterations"));
+        long timeNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(options.get("time")));
+        List<Result> results = new ArrayList<>();
+        List<Benchmark> benchmarks = benchmarks(directory.engine, directory.users, directory.groups);
+        for (Benchmark benchmark : benchmarks) {
+            benchmark.setUp();
+            double[] samples = new double[iterations];
+            for (int i = -warmup; i < iterations; i++) {
+                double nanosPerOp = benchmark.iteration(timeNanos, random);
+                if (i >= 0) {
+                    samples[i] = nanosPerOp;
+                }
+            }
+            Result result = new Result(benchmark.name, params, samples);
+            log.printf(Locale.ROOT, "# %-20s %14.1f +- %.1f ns/op%n", benchmark.name, result.mean(), result.stdev());
+            results.add(result);
+        }
+        return results;
+    }
+
+    // the directory being measured
+    static final class Directory {
+        final TwitEngine engine;
+        final TwitUser[] users;
+        final TwitUserGroup[] groups; // Root first
+
+        Directory(TwitEngine engine, TwitUser[] users, TwitUserGroup[] groups) {
+            this.engine = engine;
+            this.users = users;
+            this.groups = groups;
+        }
+    }
+
+    // generate a directory: groups form a random tree under Root, users are spread over the groups and each
+    // follows up to follows others picked with Zipf(zipf) popularity
+    static Directory build(int userCount, int groupCount, int follows, double zipf, Random random, PrintStream log) {
+        follows = Math.min(follows, userCount - 1);
+        long buildStart = System.nanoTime();
+        TwitEngine engine = TwitEngine.getInstance();
+        BulkImporter importer = new BulkImporter(engine);
+        List<String> groupIds = new ArrayList<>();
+        for (int i = 0; i < groupCount; i++) {
+            String id = "group" + i;
+            importer.addGroup(id, i == 0 ? null : groupIds.get(random.nextInt(i))); // random tree under Root
+            groupIds.add(id);
+        }
+        String[] userIds = new String[userCount];
+        for (int i = 0; i < userCount; i++) {
+            userIds[i] = "user" + i;
+            importer.addUser(userIds[i], groupIds.isEmpty() ? null : groupIds.get(random.nextInt(groupCount)));
+        }
+        int[] byPopularity = shuffledRange(userCount, random); // popular users are scattered over the groups
+        ZipfSampler popularity = new ZipfSampler(userCount, zipf);
+        for (int i = 0; i < userCount; i++) {
+            for (int f = 0; f < follows; f++) {
+                int followed = byPopularity[popularity.next(random)];
+                if (followed != i) {
+                    importer.addFollow(userIds[i], userIds[followed]); // repeats are ignored on publish
+                }
+            }
+        }
+        importer.publish();
+        TwitUser[] users = new TwitUser[userCount];
+        for (int i = 0; i < userCount; i++) {
+            users[i] = engine.findUserById(userIds[i]);
+        }
+        TwitUserGroup[] groups = new TwitUserGroup[groupCount + 1];
+        groups[0] = engine.getRootGroup();
+        for (int i = 0; i < groupCount; i++) {
+            groups[i + 1] = (TwitUserGroup) engine.findEntity(groupIds.get(i));
+        }
+        log.printf(Locale.ROOT, "# built %d users, %d groups, %d follows in %.1f s%n", userCount, groupCount,
+                importer.getImportedFollows(), (System.nanoTime() - buildStart) / 1e9);
+        return new Directory(engine, users, groups);
+    }
+
+    // the operations being tracked
+    static List<Benchmark> benchmarks(TwitEngine engine, TwitUser[] users, TwitUserGroup[] groups) {
+        List<Benchmark> benchmarks = new ArrayList<>();
+        benchmarks.add(new Benchmark("postTweet") { // caller latency, deliveries continue in the background
+            @Override
+            long op(Random random, int i) {
+                engine.post(users[random.nextInt(users.length)], "benchmark tweet " + i + " is good");
+                return i;
+            }
+        });
+        benchmarks.add(new Benchmark("postTweetAndFanout") { // time until every follower has the tweets
+            @Override
+            long op(Random random, int i) {
+                engine.post(users[random.nextInt(users.length)], "benchmark tweet " + i + " is good");
+                return i;
+            }
+
+            @Override
+            void afterIteration() throws InterruptedException {
+                FanoutPipeline.getInstance().awaitIdle(10, TimeUnit.MINUTES);
+            }
+        });
+        benchmarks.add(new Benchmark("readNewsFeed") {
+            @Override
+            long op(Random random, int i) {
+                return users[random.nextInt(users.length)].getNewsFeedIds().length;
+            }
+        });
+        benchmarks.add(new Benchmark("findUserById") {
+            @Override
+            long op(Random random, int i) {
+                return engine.findUserById(users[random.nextInt(users.length)].getId()).creationTime;
+            }
+        });
+        benchmarks.add(new Benchmark("validateIds") {
+            @Override
+            long op(Random random, int i) {
+                return engine.validateIds(groups[random.nextInt(groups.length)]) ? 1 : 0;
+            }
+        });
+        benchmarks.add(new Benchmark("countTotals") {
+            @Override
+            long op(Random random, int i) {
+                TwitUserGroup group = groups[random.nextInt(groups.length)];
+                return engine.countTotalUsers(group) + engine.countTotalGroups(group) + engine.countTotalTweets(group)
+                        + engine.countTotalPositiveTweets(group) + engine.countTotalNegativeTweets(group);
+            }
+        });
+        benchmarks.add(new Benchmark("getLastUpdateUserId") {
+            @Override
+            long op(Random random, int i) {
+                String id = engine.getLastUpdateUserId(groups[0]);
+                return id == null ? 0 : id.length();
+            }
+        });
+        benchmarks.add(new Benchmark("lastUpdateWalk") { // the tree walk the recency index replaced
+            @Override
+            long op(Random random, int i) {
+                TwitUser user = TreeAnalytics.evaluate(groups[0], TreeStatistics.LAST_UPDATE).user;
+                return user == null ? 0 : user.getId().length();
+            }
+        });
+        benchmarks.add(new Benchmark("recountTotals") {
+            @Override
+            long op(Random random, int i) {
+                return engine.recountTotals(groups[0]).tweets;
+            }
+        });
+        benchmarks.add(new Benchmark("collectEntities") {
+            @Override
+            long op(Random random, int i) {
+                return engine.collectEntities(groups[0]).size();
+            }
+        });
+        benchmarks.add(new Benchmark("findNode") { // last, so the other benchmarks run without Swing loaded
+            private TwitApp app;
+
+            @Override
+            void setUp() throws Exception {
+                app = TwitApp.getInstance(); // builds the admin panel's tree from the directory
+                SwingUtilities.invokeAndWait(new Runnable() {
+                    @Override
+                    public void run() {
+                        // wait for the tree to be built
+                    }
+                });
+            }
+
+            @Override
+            long op(Random random, int i) {
+                return app.findNodeById(users[random.nextInt(users.length)].getId()).getLevel();
+            }
+        });
+        return benchmarks;
+    }
+
+    // permutation of 0..n-1
+    static int[] shuffledRange(int n, Random random) {
+        int[] values = new int[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = i;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = values[i];
+            values[i] = values[j];
+            values[j] = swap;
+        }
+        return values;
+    }
+
+    // benchmark class times one operation over fixed-length iterations
+    abstract static class Benchmark {
+        final String name;
+
+        Benchmark(String name) {
+            this.name = name;
+        }
+
+        // perform the operation once and return something derived from its result
+        abstract long op(Random random, int i);
+
+        // prepare state the operation needs, before the warmup
+        void setUp() throws Exception {
+        }
+
+        // finish work the operations started, counted in the iteration time
+        void afterIteration() throws InterruptedException {
+        }
+
+        // run operations for about timeNanos and return the average nanoseconds per operation
+        double iteration(long timeNanos, Random random) throws InterruptedException {
+            long result = 0;
+            int ops = 0;
+            long start = System.nanoTime();
+            long elapsed;
+            do {
+                for (int i = 0; i < 64; i++) { // amortize the clock reads
+                    result += op(random, ops++);
+                }
+                elapsed = System.nanoTime() - start;
+            } while (elapsed < timeNanos);
+            afterIteration();
+            elapsed = System.nanoTime() - start;
+            sink += result;
+            return (double) elapsed / ops;
+        }
+    }
+
+    // result class holds the samples of one benchmark and parameter combination
+    private static class Result {
+        final String benchmark;
+        final Map<String, String> params;
+        final double[] samples; // nanoseconds per operation of each measured iteration
+
+        Result(String benchmark, Map<String, String> params, double[] samples) {
+            this.benchmark = benchmark;
+            this.params = new LinkedHashMap<>();
+            for (String axis : AXES) {
+                this.params.put(axis, params.get(axis));
+            }
+            this.samples = samples;
+        }
+
+        double mean() {
+            double sum = 0;
+            for (double sample : samples) {
+                sum += sample;
+            }
+            return sum / samples.length;
+        }
+
+        double stdev() {
+            if (samples.length < 2) {
+                return 0;
+            }
+            double mean = mean();
+            double sum = 0;
+            for (double sample : samples) {
+                sum += (sample - mean) * (sample - mean);
+            }
+            return Math.sqrt(sum / (samples.length - 1));
+        }
+
+        // tab-separated form passed from a forked run to the parent
+        String format() {
+            StringBuilder line = new StringBuilder(benchmark);
+            for (String axis : AXES) {
+                line.append('\t').append(params.get(axis));
+            }
+            for (double sample : samples) {
+                line.append('\t').append(sample);
+            }
+            return line.toString();
+        }
+
+        static Result parse(String line) {
+            String[] fields = line.split("\t");
+            Map<String, String> params = new LinkedHashMap<>();
+            for (int i = 0; i < AXES.length; i++) {
+                params.put(AXES[i], fields[i + 1]);
+            }
+            double[] samples = new double[fields.length - AXES.length - 1];
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = Double.parseDouble(fields[i + AXES.length + 1]);
+            }
+            return new Result(fields[0], params, samples);
+        }
+
+        static String toCsv(List<Result> results) {
+            StringBuilder csv = new StringBuilder("benchmark");
+            for (String axis : AXES) {
+                csv.append(',').append(axis);
+            }
+            csv.append(",unit,score,stdev,min,max,iterations\n");
+            for (Result result : results) {
+                csv.append(result.benchmark);
+                for (String axis : AXES) {
+                    csv.append(',').append(result.params.get(axis));
+                }
+                csv.append(String.format(Locale.ROOT, ",ns/op,%.3f,%.3f,%.3f,%.3f,%d%n", result.mean(), result.stdev(),
+                        Arrays.stream(result.samples).min().orElse(0), Arrays.stream(result.samples).max().orElse(0),
+                        result.samples.length));
+            }
+            return csv.toString();
+        }
+
+        static String toJson(List<Result> results) {
+            StringBuilder json = new StringBuilder("[\n");
+            for (int r = 0; r < results.size(); r++) {
+                Result result = results.get(r);
+                json.append("  {\"benchmark\": \"").append(result.benchmark).append("\", \"params\": {");
+                int p = 0;
+                for (Map.Entry<String, String> param : result.params.entrySet()) {
+                    json.append(p++ > 0 ? ", " : "").append('"').append(param.getKey()).append("\": \"")
+                            .append(param.getValue()).append('"');
+                }
+                json.append(String.format(Locale.ROOT, "}, \"unit\": \"ns/op\", \"score\": %.3f, \"stdev\": %.3f, \"samples\": [",
+                        result.mean(), result.stdev()));
+                for (int s = 0; s < result.samples.length; s++) {
+                    json.append(s > 0 ? ", " : "").append(String.format(Locale.ROOT, "%.3f", result.samples[s]));
+                }
+                json.append("]}").append(r + 1 < results.size() ? ",\n" : "\n");
+            }
+            return json.append("]\n").toString();
+        }
+    }
+}
@@ -0,0 +1,469 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+// eventJournal class is the append-only binary log of everything that changes the directory.
+// callers append records to an in-memory buffer; a committer thread writes the buffer through
+// a FileChannel and forces it to disk, so one fsync covers every record of a burst (group commit).
+// a caller that reports success waits in awaitDurable, after letting go of its locks, until its records
+// are forced; with -Dtwitapp.journal.sync=false it does not wait, and a crash can lose whatever was
+// appended in the last commit interval (-Dtwitapp.commitMillis, 5 ms by default).
+// each record is [int length][int crc32][byte type][payload]; replay stops at the first torn record
+class EventJournal implements AutoCloseable {
+    static final byte GROUP_CREATED = 1; // id, parent id, creation time
+    static final byte USER_CREATED = 2; // id, parent id, creation time
+    static final byte FOLLOWED = 3; // follower id, followed id, tweet ID the follow started after
+    static final byte TWEET_POSTED = 4; // tweet ID, author id, posted at, flags, [sentiment,] [audience id,] text
+    static final byte UNFOLLOWED = 5; // follower id, followed id
+    static final byte FEED_DROPPED = 6; // user id, tweet ID the pushed news feed entries were dropped through
+
+    private static final int FLAG_POSITIVE = 1;
+    private static final int FLAG_PUSHED = 2;
+    private static final int FLAG_SENTIMENT = 4; // a sentiment score follows the flags
+    private static final int FLAG_AUDIENCE = 8; // the ID of the group the tweet was posted to follows the score
+
+    private static volatile EventJournal current; // journal recording changes, null while loading or disabled
+
+    private final Path directory; // directory holding the journal files
+    private final long commitIntervalMillis; // longest a record waits before being forced to disk
+    private final boolean sync; // whether awaitDurable waits for the records to be forced
+    private final Object lock; // guards buffer, buffered and recordCount; held only for memory copies
+    private final Object commitLock; // guards channel and generation; held while writing to disk
+    private byte[] buffer; // records not yet written
+    private int buffered; // bytes used in buffer
+    private FileChannel channel; // current journal file
+    private long generation; // number of the current journal file
+    private long recordCount; // records appended since the last rotation
+    private long appendedBytes; // bytes appended since the journal was opened, guarded by lock
+    private volatile long forcedBytes; // of those, bytes forced to disk
+    private final Object forcedLock; // notified when forcedBytes grows or the journal closes
+    private volatile boolean closed;
+    private final Thread committer;
+
+    // handler for records read back from a journal
+    interface Handler {
+        void groupCreated(String id, String parentId, long creationTime);
+
+        void userCreated(String id, String parentId, long creationTime);
+
+        void followed(String followerId, String followedId, long since);
+
+        // audienceId is null for a tweet posted to the author's followers
+        void tweetPosted(long id, String authorId, long postedAt, int sentiment, boolean pushed, String audienceId,
+                         String text);
+
+        void unfollowed(String followerId, String followedId);
+
+        void feedDropped(String userId, long throughId);
+    }
+
+    // constructor for EventJournal class, appending to journal file number generation
+    EventJournal(Path directory, long generation, long commitIntervalMillis, boolean sync) throws IOException {
+        this.directory = directory;
+        this.commitIntervalMillis = commitIntervalMillis;
+        this.sync = sync;
+        this.lock = new Object();
+        this.commitLock = new Object();
+        this.forcedLock = new Object();
+        this.buffer = new byte[64 * 1024];
+        this.generation = generation;
+        this.channel = openForAppend(file(directory, generation));
+        this.committer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                commitLoop();
+            }
+        }, "journal-committer");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    // get the journal recording changes, or null if none
+    static EventJournal current() {
+        return current;
+    }
+
+    // install the journal recording changes, or null to stop recording
+    static void setCurrent(EventJournal journal) {
+        current = journal;
+    }
+
+    // get the path of a journal file
+    static Path file(Path directory, long generation) {
+        return directory.resolve(String.format("journal-%08d.log", generation));
+    }
+
+    // record a new group
+    void groupCreated(TwitUserGroup group) {
+        Record record = new Record(GROUP_CREATED);
+        record.putString(group.getId());
+        record.putString(group.getParent() == null ? "" : group.getParent().getId());
+        record.putLong(group.creationTime);
+        append(record);
+    }
+
+    // record a new user
+    void userCreated(TwitUser user) {
+        Record record = new Record(USER_CREATED);
+        record.putString(user.getId());
+        record.putString(user.getParent() == null ? "" : user.getParent().getId());
+        record.putLong(user.creationTime);
+        append(record);
+    }
+
+    // record a new follow edge
+    void followed(TwitUser follower, TwitUser followed, long since) {
+        Record record = new Record(FOLLOWED);
+        record.putString(follower.getId());
+        record.putString(followed.getId());
+        record.putLong(since);
+        append(record);
+    }
+
+    // record a removed follow edge
+    void unfollowed(TwitUser follower, TwitUser followed) {
+        Record record = new Record(UNFOLLOWED);
+        record.putString(follower.getId());
+        record.putString(followed.getId());
+        append(record);
+    }
+
+    // record that timeline retention dropped a user's pushed news feed entries
+    void feedDropped(TwitUser user, long throughId) {
+        Record record = new Record(FEED_DROPPED);
+        record.putString(user.getId());
+        record.putLong(throughId);
+        append(record);
+    }
+
+    // record a posted tweet
+    void tweetPosted(Tweet tweet) {
+        Record record = new Record(TWEET_POSTED);
+        record.putLong(tweet.id);
+        record.putString(tweet.author.getId());
+        record.putLong(tweet.postedAt);
+        record.putByte((tweet.isPositive() ? FLAG_POSITIVE : 0) | (tweet.pushed ? FLAG_PUSHED : 0) | FLAG_SENTIMENT
+                | (tweet.audience != null ? FLAG_AUDIENCE : 0));
+        record.putInt(tweet.sentiment);
+        if (tweet.audience != null) {
+            record.putString(tweet.audience.getId());
+        }
+        record.putString(tweet.text);
+        append(record);
+    }
+
+    // get number of records appended since the last rotation
+    long getRecordCount() {
+        synchronized (lock) {
+            return recordCount;
+        }
+    }
+
+    // add a framed record to the buffer, waking the committer when the buffer fills up
+    private void append(Record record) {
+        byte[] bytes = record.frame();
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            if (buffered + bytes.length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, buffered + bytes.length));
+            }
+            System.arraycopy(bytes, 0, buffer, buffered, bytes.length);
+            buffered += bytes.length;
+            appendedBytes += bytes.length;
+            recordCount++;
+            if (sync || buffered >= 64 * 1024) {
+                lock.notifyAll(); // someone will wait for it, or commit early under load
+            }
+        }
+    }
+
+    // wait until the current journal, if any, has forced every record appended so far
+    static void awaitCurrent() {
+        EventJournal journal = current;
+        if (journal != null) {
+            journal.awaitDurable();
+        }
+    }
+
+    // wait until every record appended so far is forced to disk; returns at once without sync. call it
+    // after releasing the structure lock, so records appended meanwhile by others share the same fsync
+    void awaitDurable() {
+        if (!sync) {
+            return;
+        }
+        long target;
+        synchronized (lock) {
+            target = appendedBytes;
+        }
+        boolean interrupted = false;
+        synchronized (forcedLock) {
+            while (forcedBytes < target && !closed) {
+                try {
+                    forcedLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true; // the record is already appended, so see it through
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // committer loop: write and force whatever is buffered every interval, or as soon as it arrives with sync;
+    // records appended during one fsync are forced together by the next
+    private void commitLoop() {
+        boolean failed = false;
+        while (!closed) {
+            synchronized (lock) {
+                try {
+                    if (buffered == 0 || !sync || failed) {
+                        lock.wait(commitIntervalMillis);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            try {
+                commit();
+                failed = false;
+            } catch (IOException e) {
+                e.printStackTrace(); // records stay buffered and are retried on the next round
+                failed = true;
+            }
+        }
+    }
+
+    // write buffered records and force them to disk; appends continue into a fresh buffer meanwhile
+    void commit() throws IOException {
+        synchronized (commitLock) {
+            byte[] pending;
+            int length;
+            long through; // appendedBytes once this batch is on disk
+            synchronized (lock) {
+                if (buffered == 0) {
+                    return;
+                }
+                pending = buffer;
+                length = buffered;
+                through = appendedBytes;
+                buffer = new byte[pending.length];
+                buffered = 0;
+            }
+            ByteBuffer out = ByteBuffer.wrap(pending, 0, length);
+            try {
+                while (out.hasRemaining()) {
+                    channel.write(out);
+                }
+                channel.force(false); // one fsync for the whole burst
+                synchronized (forcedLock) {
+                    forcedBytes = through;
+                    forcedLock.notifyAll();
+                }
+            } catch (IOException e) {
+                synchronized (lock) { // put the records back in front of newer ones for the next try
+                    byte[] merged = new byte[Math.max(buffer.length, length + buffered)];
+                    System.arraycopy(pending, out.position(), merged, 0, length - out.position());
+                    System.arraycopy(buffer, 0, merged, length - out.position(), buffered);
+                    buffered += length - out.position();
+                    buffer = merged;
+                }
+                throw e;
+            }
+        }
+    }
+
+    // commit and start a new journal file; records after this land in the new file
+    void rotate(long newGeneration) throws IOException {
+        synchronized (commitLock) {
+            commit();
+            channel.close();
+            generation = newGeneration;
+            channel = openForAppend(file(directory, generation));
+            synchronized (lock) {
+                recordCount = 0;
+            }
+        }
+    }
+
+    // get the number of the current journal file
+    long getGeneration() {
+        synchronized (commitLock) {
+            return generation;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (commitLock) {
+            if (closed) {
+                return;
+            }
+            commit();
+            closed = true;
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+            synchronized (forcedLock) {
+                forcedLock.notifyAll(); // nothing more will be forced
+            }
+            channel.close();
+        }
+    }
+
+    // open a journal file for appending
+    private static FileChannel openForAppend(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        return channel;
+    }
+
+    // read a journal file back, cutting off a torn tail; returns the number of records read
+    static long replay(Path path, Handler handler) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        long count = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Journal file larger than 2 GB: " + path);
+            }
+            // read, not mapped: a file cannot be truncated while a mapping of it is live on every platform
+            ByteBuffer in = ByteBuffer.allocate((int) channel.size());
+            while (in.hasRemaining()) {
+                if (channel.read(in) < 0) {
+                    break; // the file ended early
+                }
+            }
+            in.flip();
+            CRC32 crc = new CRC32();
+            long valid = 0;
+            while (in.remaining() >= 9) {
+                int start = in.position();
+                int length = in.getInt();
+                int checksum = in.getInt();
+                if (length <= 0 || length > in.remaining()) {
+                    break; // torn write
+                }
+                ByteBuffer body = in.slice();
+                body.limit(length);
+                crc.reset();
+                crc.update(body.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    in.position(start);
+                    break; // torn or corrupt write
+                }
+                dispatch(body, handler);
+                in.position(in.position() + length);
+                valid = in.position();
+                count++;
+            }
+            if (valid < channel.size()) {
+                channel.truncate(valid); // drop the torn tail so new records follow valid ones
+            }
+        }
+        return count;
+    }
+
+    // decode one record body and hand it to the handler
+    private static void dispatch(ByteBuffer body, Handler handler) {
+        byte type = body.get();
+        switch (type) {
+            case GROUP_CREATED:
+                handler.groupCreated(getString(body), getString(body), body.getLong());
+                break;
+            case USER_CREATED:
+                handler.userCreated(getString(body), getString(body), body.getLong());
+                break;
+            case FOLLOWED:
+                handler.followed(getString(body), getString(body), body.getLong());
+                break;
+            case TWEET_POSTED:
+                long id = body.getLong();
+                String author = getString(body);
+                long postedAt = body.getLong();
+                int flags = body.get();
+                // records written before scores existed only know whether the tweet was positive
+                int sentiment = (flags & FLAG_SENTIMENT) != 0 ? body.getInt() : (flags & FLAG_POSITIVE) != 0 ? 1 : 0;
+                String audience = (flags & FLAG_AUDIENCE) != 0 ? getString(body) : null;
+                handler.tweetPosted(id, author, postedAt, sentiment, (flags & FLAG_PUSHED) != 0, audience,
+                        getString(body));
+                break;
+            case UNFOLLOWED:
+                handler.unfollowed(getString(body), getString(body));
+                break;
+            case FEED_DROPPED:
+                handler.feedDropped(getString(body), body.getLong());
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal record type " + type);
+        }
+    }
+
+    // read a length-prefixed UTF-8 string
+    static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // record class builds one journal record body
+    static class Record {
+        private byte[] bytes = new byte[64];
+        private int size;
+
+        Record(byte type) {
+            putByte(type);
+        }
+
+        void putByte(int value) {
+            ensure(1);
+            bytes[size++] = (byte) value;
+        }
+
+        void putInt(int value) {
+            ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                bytes[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        void putLong(long value) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        void putString(String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            putInt(utf8.length);
+            ensure(utf8.length);
+            System.arraycopy(utf8, 0, bytes, size, utf8.length);
+            size += utf8.length;
+        }
+
+        // prefix the body with its length and checksum
+        byte[] frame() {
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, size);
+            ByteBuffer framed = ByteBuffer.allocate(8 + size);
+            framed.putInt(size).putInt((int) crc.getValue()).put(bytes, 0, size);
+            return framed.array();
+        }
+
+        private void ensure(int more) {
+            if (size + more > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + more));
+            }
+        }
+    }
+}
@@ -0,0 +1,256 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// fanoutPipeline class delivers pushed tweets to follower inboxes off the posting thread.
+// posts go into a bounded queue (posting blocks when it is full) and a pool of workers
+// drains it in batches, appending each follower's share of a batch in one go. a tweet posted
+// to a group is one task carrying the users below the group, delivered the same way
+class FanoutPipeline {
+    private static final int BATCH_SIZE = 64; // most tweets a worker takes at once
+
+    private final BlockingQueue<Task> queue; // tweets waiting for delivery
+    private final int workerCount; // number of worker threads, 0 delivers on the posting thread
+    private final AtomicInteger inFlight; // tweets queued or being delivered
+    private final AtomicLong deliveredTweets; // tweets fully delivered
+    private final AtomicLong deliveredEntries; // inbox entries written
+    private final AtomicLong lastLagNanos; // queue-to-delivered time of the latest batch
+    private final AtomicLong maxLagNanos; // worst queue-to-delivered time seen
+    private final Object idleLock; // notified when inFlight drops to 0
+
+    // a queued tweet, who gets it and when it was queued
+    private static class Task {
+        final Tweet tweet;
+        final TwitUser[] recipients; // users below the tweet's audience group, null to deliver to the followers
+        final long queuedAt;
+
+        Task(Tweet tweet, TwitUser[] recipients, long queuedAt) {
+            this.tweet = tweet;
+            this.recipients = recipients;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    // constructor for FanoutPipeline class
+    FanoutPipeline(int workerCount, int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.workerCount = workerCount;
+        this.inFlight = new AtomicInteger();
+        this.deliveredTweets = new AtomicLong();
+        this.deliveredEntries = new AtomicLong();
+        this.lastLagNanos = new AtomicLong();
+        this.maxLagNanos = new AtomicLong();
+        this.idleLock = new Object();
+        ThreadFactory threads = workerThreads();
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = threads.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            });
+            worker.setName("fanout-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    // holder class so the singleton is created lazily and published safely
+    private static class Holder {
+        static final FanoutPipeline INSTANCE = new FanoutPipeline(
+                Integer.getInteger("twitapp.fanoutThreads", Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("twitapp.fanoutQueue", 10_000));
+    }
+
+    // singleton instance getter
+    public static FanoutPipeline getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    // queue a pushed tweet for delivery to its author's followers, waiting while the queue is full
+    public void submit(Tweet tweet) {
+        submit(new Task(tweet, null, System.nanoTime()));
+    }
+
+    // queue a tweet posted to a group for delivery to the users below it, except the author
+    public void submit(Tweet tweet, TwitUser[] recipients) {
+        submit(new Task(tweet, recipients, System.nanoTime()));
+    }
+
+    private void submit(Task task) {
+        inFlight.incrementAndGet();
+        if (workerCount == 0) {
+            try {
+                deliver(Collections.singletonList(task));
+            } finally {
+                finished(1);
+            }
+            return;
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(task); // back-pressure on the posting thread
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true; // the tweet is already stored, so it must still be delivered
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // worker loop: take a batch and deliver it
+    private void work() {
+        List<Task> batch = new ArrayList<>(BATCH_SIZE);
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, BATCH_SIZE - 1);
+            try {
+                deliver(batch);
+            } catch (RuntimeException e) {
+                e.printStackTrace(); // keep the worker alive
+            } finally {
+                finished(batch.size()); // a failed batch must not hold up awaitIdle forever
+            }
+            batch.clear();
+        }
+    }
+
+    // append a batch of tweets to the inboxes of the followers who followed before each tweet, or of the
+    // users below the group a tweet was posted to
+    private void deliver(List<Task> batch) {
+        long start = Metrics.start();
+        Map<TwitUser, TweetIdList> perFollower = new HashMap<>();
+        SocialGraph graph = SocialGraph.getInstance();
+        for (Task task : batch) {
+            Tweet tweet = task.tweet;
+            if (task.recipients != null) {
+                for (TwitUser recipient : task.recipients) {
+                    if (recipient != tweet.author) {
+                        add(perFollower, recipient, tweet.id);
+                    }
+                }
+                continue;
+            }
+            long[] followers = graph.followerEdges(tweet.author.graphIndex()); // follower index, since pairs
+            for (int i = 0; i < followers.length; i += 2) {
+                if (followers[i + 1] >= tweet.id) {
+                    continue; // followed after the tweet was posted
+                }
+                add(perFollower, graph.user((int) followers[i]), tweet.id);
+            }
+        }
+        long entries = 0;
+        for (Map.Entry<TwitUser, TweetIdList> delivery : perFollower.entrySet()) {
+            // one inbox update per follower per batch
+            entries += delivery.getKey().receive(delivery.getValue().snapshotAfter(0));
+        }
+        deliveredEntries.addAndGet(entries);
+        deliveredTweets.addAndGet(batch.size());
+        long lag = System.nanoTime() - batch.get(0).queuedAt;
+        lastLagNanos.set(lag);
+        maxLagNanos.accumulateAndGet(lag, Math::max);
+        Metrics.FANOUT_ENTRIES.add(entries);
+        if (Metrics.ENABLED) {
+            Metrics.FANOUT_LAG.record(lag);
+        }
+        Metrics.FANOUT_BATCH.recordSince(start);
+    }
+
+    // count tweets as no longer in flight, delivered or not, and wake awaitIdle when none are left
+    private void finished(int tweets) {
+        if (inFlight.addAndGet(-tweets) == 0) {
+            synchronized (idleLock) {
+                idleLock.notifyAll();
+            }
+        }
+    }
+
+    // add a tweet to a user's share of the batch
+    private static void add(Map<TwitUser, TweetIdList> perFollower, TwitUser user, long tweetId) {
+        TweetIdList ids = perFollower.get(user);
+        if (ids == null) {
+            perFollower.put(user, ids = new TweetIdList());
+        }
+        ids.add(tweetId);
+    }
+
+    // wait until every queued tweet has been delivered, returns false on timeout
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (idleLock) {
+            while (inFlight.get() > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(idleLock, remaining);
+            }
+        }
+        return true;
+    }
+
+    // get number of tweets waiting in the queue
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    // get number of tweets queued or being delivered
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    // get number of tweets fully delivered
+    public long getDeliveredTweets() {
+        return deliveredTweets.get();
+    }
+
+    // get number of inbox entries written
+    public long getDeliveredEntries() {
+        return deliveredEntries.get();
+    }
+
+    // get queue-to-delivered time of the latest batch in milliseconds
+    public double getLastLagMillis() {
+        return lastLagNanos.get() / 1e6;
+    }
+
+    // get worst queue-to-delivered time seen in milliseconds
+    public double getMaxLagMillis() {
+        return maxLagNanos.get() / 1e6;
+    }
+
+    // get number of worker threads
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    // use virtual threads where the runtime has them, platform threads otherwise
+    private static ThreadFactory workerThreads() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable task) {
+                    return new Thread(task);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,10 @@
+// feedListener is told about tweets entering a user's news feed: the user's own posts, posts of
+// followed users read on demand, and pushed tweets as the fan-out pipeline delivers them. It is
+// called on the posting or delivering thread, so implementations should only queue work.
+interface FeedListener {
+    void feedUpdated(TwitUser user, Tweet tweet);
+
+    // the oldest entries were dropped by timeline retention, so positions in the feed have shifted
+    default void feedTrimmed(TwitUser user) {
+    }
+}
@@ -0,0 +1,138 @@
+import java.util.Arrays;
+
+// intLongMap class maps non-negative int keys to long values in one open-addressing table with linear
+// probing, so lookups touch a couple of adjacent slots and nothing is boxed; not thread-safe
+class IntLongMap {
+    private static final int FREE = -1; // key of an empty slot
+
+    private int[] keys; // FREE for empty slots
+    private long[] values; // value of the key in the same slot
+    private int size;
+
+    // constructor for IntLongMap class
+    IntLongMap() {
+        this.keys = new int[4];
+        this.values = new long[4];
+        Arrays.fill(keys, FREE);
+    }
+
+    // get number of keys
+    public int size() {
+        return size;
+    }
+
+    // check if the key is present
+    public boolean containsKey(int key) {
+        return keys[find(key)] == key;
+    }
+
+    // get the value of a key, or the given default if it is not present
+    public long get(int key, long missing) {
+        int slot = find(key);
+        return keys[slot] == key ? values[slot] : missing;
+    }
+
+    // add a key, returns false and keeps the old value if it was present
+    public boolean putIfAbsent(int key, long value) {
+        int slot = find(key);
+        if (keys[slot] == key) {
+            return false;
+        }
+        insert(slot, key, value);
+        return true;
+    }
+
+    // add delta to the value of a key, adding the key with value delta if it is not present
+    public void addTo(int key, long delta) {
+        int slot = find(key);
+        if (keys[slot] == key) {
+            values[slot] += delta;
+        } else {
+            insert(slot, key, delta);
+        }
+    }
+
+    // remove a key, returns its value or the given default if it was not present
+    public long remove(int key, long missing) {
+        int slot = find(key);
+        if (keys[slot] != key) {
+            return missing;
+        }
+        long value = values[slot];
+        int mask = keys.length - 1;
+        // shift later keys of the probe run back so lookups never need tombstones
+        int gap = slot;
+        for (int next = (slot + 1) & mask; keys[next] != FREE; next = (next + 1) & mask) {
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        keys[gap] = FREE;
+        size--;
+        return value;
+    }
+
+    // copy the keys, in table order
+    public int[] keys() {
+        int[] copy = new int[size];
+        int count = 0;
+        for (int key : keys) {
+            if (key != FREE) {
+                copy[count++] = key;
+            }
+        }
+        return copy;
+    }
+
+    // copy the entries as key, value pairs in one array, in table order
+    public long[] entries() {
+        long[] copy = new long[size * 2];
+        int count = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != FREE) {
+                copy[count++] = keys[slot];
+                copy[count++] = values[slot];
+            }
+        }
+        return copy;
+    }
+
+    // find the slot of a key, or the empty slot where it would go
+    private int find(int key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != key && keys[slot] != FREE) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // put a new key into an empty slot, growing the table to stay at most half full
+    private void insert(int slot, int key, long value) {
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 2 > keys.length) {
+            int[] oldKeys = keys;
+            long[] oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new long[oldKeys.length * 2];
+            Arrays.fill(keys, FREE);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != FREE) {
+                    int to = find(oldKeys[i]);
+                    keys[to] = oldKeys[i];
+                    values[to] = oldValues[i];
+                }
+            }
+        }
+    }
+
+    // spread dense indexes so neighbours do not form long probe runs
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
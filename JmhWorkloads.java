@@ -0,0 +1,57 @@
+import java.util.List;
+import java.util.Random;
+import java.util.function.LongUnaryOperator;
+
+// jmhWorkloads hands the DirectoryBenchmark directory generator and operations to the JMH benchmarks in jmh/.
+// JMH does not accept benchmarks in the default package, and a class in a named package cannot name one in
+// the default package, so the benchmarks look this class up by name once per trial and then call the
+// operations through JDK interfaces only
+public class JmhWorkloads {
+    private static DirectoryBenchmark.Directory directory; // built once per JVM, JMH forks one per parameter combination
+
+    // build the directory the operations run on, unless this JVM already has one
+    public static synchronized void build(int users, int groups, int follows, double zipf, long seed) {
+        if (directory == null) {
+            directory = DirectoryBenchmark.build(users, groups, follows, zipf, new Random(seed), System.err);
+        }
+    }
+
+    // get the named DirectoryBenchmark operation, set up; it takes the operation's sequence number and returns
+    // something derived from the result. it is also a Runnable that finishes the work an iteration started
+    public static LongUnaryOperator operation(String name, long seed) throws Exception {
+        List<DirectoryBenchmark.Benchmark> benchmarks = DirectoryBenchmark.benchmarks(directory.engine,
+                directory.users, directory.groups);
+        for (DirectoryBenchmark.Benchmark benchmark : benchmarks) {
+            if (benchmark.name.equals(name)) {
+                benchmark.setUp();
+                return new Operation(benchmark, new Random(seed));
+            }
+        }
+        throw new IllegalArgumentException("Unknown operation " + name);
+    }
+
+    // operation class runs one DirectoryBenchmark operation
+    private static final class Operation implements LongUnaryOperator, Runnable {
+        private final DirectoryBenchmark.Benchmark benchmark;
+        private final Random random; // picks users and groups, one thread per trial
+
+        Operation(DirectoryBenchmark.Benchmark benchmark, Random random) {
+            this.benchmark = benchmark;
+            this.random = random;
+        }
+
+        @Override
+        public long applyAsLong(long i) {
+            return benchmark.op(random, (int) i);
+        }
+
+        @Override
+        public void run() {
+            try {
+                benchmark.afterIteration();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,522 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+// loadGenerator drives the headless engine with a seeded synthetic workload and reports throughput, latency
+// percentiles and heap usage, for capacity planning and unattended regression checks
+//
+// the directory is a random group tree with users spread over it, each following --follows others picked
+// with Zipf(--zipf) popularity, so follower counts follow a power law. every thread then runs --operations
+// operations drawn from --mix: posts by Zipf-active authors with words, #hashtags and @mentions, follows,
+// unfollows of initial follows, timeline reads and searches. with --rate the operations are scheduled at
+// that total rate and latency counts from the scheduled time, so a stall shows up in the percentiles
+// instead of slowing the load down; without it every thread runs flat out.
+//
+// the same --seed gives the same directory and the same operations on each thread. --record writes them to
+// a trace file and --replay runs a trace instead of generating one, with the same threads and schedule;
+// how the threads interleave is up to the scheduler.
+// usage: java LoadGenerator [--users 10000] [--groups 100] [--follows 20] [--zipf 1.1] [--threads 4]
+//                           [--operations 20000] [--rate 0] [--mix post:60,follow:5,unfollow:2,read:30,search:3]
+//                           [--seed 42] [--record file] [--replay file] [--format text|json]
+public class LoadGenerator {
+    private static final String[] TYPES = { "post", "follow", "unfollow", "read", "search" };
+    private static final int POST = 0;
+    private static final int FOLLOW = 1;
+    private static final int UNFOLLOW = 2;
+    private static final int READ = 3;
+    private static final int SEARCH = 4;
+    private static final int HASHTAGS = 200; // distinct hashtags in generated tweets
+    private static final String[] WORDS = { "the", "new", "release", "is", "out", "today", "good", "great", "bad",
+            "awful", "coffee", "build", "broken", "again", "ship", "it", "happy", "weekend", "meeting", "late" };
+    private static final String TRACE_HEADER = "# twitapp workload trace 1";
+
+    // one operation of a thread
+    private static final class Op {
+        final int type;
+        final long at; // scheduled nanoseconds after the start, 0 to run at once
+        final String first; // author, follower, reader or query
+        final String second; // tweet text or followed user, null for reads and searches
+
+        Op(int type, long at, String first, String second) {
+            this.type = type;
+            this.at = at;
+            this.first = first;
+            this.second = second;
+        }
+    }
+
+    // a directory and the operations of every thread
+    private static final class Workload {
+        final List<String[]> groups = new ArrayList<>(); // id, parent id or null
+        final List<String[]> users = new ArrayList<>(); // id, group id
+        final List<String[]> follows = new ArrayList<>(); // follower id, followed id
+        final List<List<Op>> threads = new ArrayList<>();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("users", "10000");
+        options.put("groups", "100");
+        options.put("follows", "20");
+        options.put("zipf", "1.1");
+        options.put("threads", "4");
+        options.put("operations", "20000");
+        options.put("rate", "0");
+        options.put("mix", "post:60,follow:5,unfollow:2,read:30,search:3");
+        options.put("seed", "42");
+        options.put("record", "");
+        options.put("replay", "");
+        options.put("format", "text");
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i].startsWith("--") ? args[i].substring(2) : null;
+            if (name == null || !options.containsKey(name) || i + 1 == args.length) {
+                System.err.println("Unknown or incomplete option " + args[i]);
+                System.exit(2);
+            }
+            options.put(name, args[++i]);
+        }
+
+        long started = System.nanoTime();
+        Workload workload = options.get("replay").isEmpty() ? generate(options) : readTrace(options.get("replay"));
+        if (!options.get("record").isEmpty()) {
+            writeTrace(workload, options.get("record"));
+            System.err.println("# recorded the workload to " + options.get("record"));
+        }
+        System.err.printf(Locale.ROOT, "# workload ready in %.1f s%n", (System.nanoTime() - started) / 1e9);
+
+        TwitEngine engine = TwitEngine.getInstance();
+        long buildStart = System.nanoTime();
+        build(engine, workload);
+        double buildSeconds = (System.nanoTime() - buildStart) / 1e9;
+        System.err.printf(Locale.ROOT, "# built %d users, %d groups, %d follows in %.1f s%n", workload.users.size(),
+                workload.groups.size(), workload.follows.size(), buildSeconds);
+
+        Report report = run(engine, workload);
+        report.buildSeconds = buildSeconds;
+        PrintStream out = System.out;
+        out.print("json".equals(options.get("format")) ? report.toJson() : report.toText());
+        out.flush();
+        System.exit(report.failure == null ? 0 : 1);
+    }
+
+    // generate the directory and the operations of every thread from the seed
+    private static Workload generate(Map<String, String> options) {
+        int userCount = Integer.parseInt(options.get("users"));
+        int groupCount = Integer.parseInt(options.get("groups"));
+        int follows = Math.min(Integer.parseInt(options.get("follows")), userCount - 1);
+        double zipf = Double.parseDouble(options.get("zipf"));
+        int threadCount = Integer.parseInt(options.get("threads"));
+        int operations = Integer.parseInt(options.get("operations"));
+        double rate = Double.parseDouble(options.get("rate"));
+        long seed = Long.parseLong(options.get("seed"));
+        int[] mix = parseMix(options.get("mix"));
+
+        Workload workload = new Workload();
+        Random random = new Random(seed);
+        for (int i = 0; i < groupCount; i++) {
+            workload.groups.add(new String[] { "group" + i, i == 0 ? null : "group" + random.nextInt(i) });
+        }
+        String[] userIds = new String[userCount];
+        for (int i = 0; i < userCount; i++) {
+            userIds[i] = "user" + i;
+            workload.users.add(new String[] { userIds[i], groupCount == 0 ? null : "group" + random.nextInt(groupCount) });
+        }
+        int[] byPopularity = DirectoryBenchmark.shuffledRange(userCount, random); // popular users anywhere in the tree
+        ZipfSampler popularity = new ZipfSampler(userCount, zipf);
+        for (int i = 0; i < userCount; i++) {
+            for (int f = 0; f < follows; f++) {
+                int followed = byPopularity[popularity.next(random)];
+                if (followed != i) {
+                    workload.follows.add(new String[] { userIds[i], userIds[followed] }); // repeats are ignored
+                }
+            }
+        }
+
+        ZipfSampler hashtags = new ZipfSampler(HASHTAGS, zipf);
+        long interval = rate > 0 ? (long) (1e9 * threadCount / rate) : 0; // between operations of one thread
+        for (int t = 0; t < threadCount; t++) {
+            Random threadRandom = new Random(seed * 31 + t + 1); // independent of the other threads
+            List<Op> ops = new ArrayList<>(operations);
+            long offset = interval * t / Math.max(1, threadCount); // stagger the threads
+            for (int i = 0; i < operations; i++) {
+                long at = interval == 0 ? 0 : offset + interval * i;
+                int type = pick(mix, threadRandom);
+                String user = userIds[byPopularity[popularity.next(threadRandom)]]; // popular users are active too
+                if (type == POST) {
+                    ops.add(new Op(POST, at, user, tweetText(threadRandom, hashtags, userIds, byPopularity, popularity)));
+                } else if (type == FOLLOW) {
+                    ops.add(new Op(FOLLOW, at, userIds[threadRandom.nextInt(userCount)], user));
+                } else if (type == UNFOLLOW && !workload.follows.isEmpty()) {
+                    String[] follow = workload.follows.get(threadRandom.nextInt(workload.follows.size()));
+                    ops.add(new Op(UNFOLLOW, at, follow[0], follow[1]));
+                } else if (type == SEARCH) {
+                    ops.add(new Op(SEARCH, at, "#tag" + hashtags.next(threadRandom), null));
+                } else {
+                    ops.add(new Op(READ, at, userIds[threadRandom.nextInt(userCount)], null));
+                }
+            }
+            workload.threads.add(ops);
+        }
+        return workload;
+    }
+
+    // a few words, sometimes a hashtag and a mention
+    private static String tweetText(Random random, ZipfSampler hashtags, String[] userIds, int[] byPopularity,
+                                    ZipfSampler popularity) {
+        StringBuilder text = new StringBuilder();
+        int words = 3 + random.nextInt(8);
+        for (int w = 0; w < words; w++) {
+            text.append(w > 0 ? " " : "").append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        if (random.nextInt(3) == 0) {
+            text.append(" #tag").append(hashtags.next(random));
+        }
+        if (random.nextInt(5) == 0) {
+            text.append(" @").append(userIds[byPopularity[popularity.next(random)]]);
+        }
+        return text.toString();
+    }
+
+    // parse "post:60,read:30" into a weight per operation type
+    private static int[] parseMix(String mix) {
+        int[] weights = new int[TYPES.length];
+        for (String part : mix.split(",")) {
+            String[] fields = part.trim().split(":");
+            int type = typeOf(fields[0]);
+            if (fields.length != 2 || type < 0) {
+                throw new IllegalArgumentException("Bad --mix entry \"" + part + "\"");
+            }
+            weights[type] = Integer.parseInt(fields[1]);
+        }
+        return weights;
+    }
+
+    private static int pick(int[] weights, Random random) {
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        int target = random.nextInt(total);
+        for (int type = 0; type < weights.length; type++) {
+            target -= weights[type];
+            if (target < 0) {
+                return type;
+            }
+        }
+        return POST;
+    }
+
+    private static int typeOf(String name) {
+        for (int type = 0; type < TYPES.length; type++) {
+            if (TYPES[type].equals(name)) {
+                return type;
+            }
+        }
+        return -1;
+    }
+
+    // write the directory as BulkImporter lines and every operation as op,thread,atMicros,type,first[,second]
+    private static void writeTrace(Workload workload, String file) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8)) {
+            out.write(TRACE_HEADER);
+            out.newLine();
+            for (String[] group : workload.groups) {
+                out.write("group," + group[0] + (group[1] == null ? "" : "," + group[1]));
+                out.newLine();
+            }
+            for (String[] user : workload.users) {
+                out.write("user," + user[0] + (user[1] == null ? "" : "," + user[1]));
+                out.newLine();
+            }
+            for (String[] follow : workload.follows) {
+                out.write("follow," + follow[0] + "," + follow[1]);
+                out.newLine();
+            }
+            for (int t = 0; t < workload.threads.size(); t++) {
+                for (Op op : workload.threads.get(t)) {
+                    out.write("op," + t + "," + op.at / 1000 + "," + TYPES[op.type] + "," + op.first
+                            + (op.second == null ? "" : "," + op.second));
+                    out.newLine();
+                }
+            }
+        }
+    }
+
+    // read a trace written by writeTrace
+    private static Workload readTrace(String file) throws IOException {
+        Workload workload = new Workload();
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            String line = in.readLine();
+            if (!TRACE_HEADER.equals(line)) {
+                throw new IOException(file + " is not a workload trace");
+            }
+            int lineNumber = 1;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                String[] fields = line.split(",", line.startsWith("op,") ? 6 : 3); // tweet text may hold commas
+                try {
+                    switch (fields[0]) {
+                        case "group":
+                            workload.groups.add(new String[] { fields[1], fields.length > 2 ? fields[2] : null });
+                            break;
+                        case "user":
+                            workload.users.add(new String[] { fields[1], fields.length > 2 ? fields[2] : null });
+                            break;
+                        case "follow":
+                            workload.follows.add(new String[] { fields[1], fields[2] });
+                            break;
+                        case "op":
+                            int thread = Integer.parseInt(fields[1]);
+                            while (workload.threads.size() <= thread) {
+                                workload.threads.add(new ArrayList<Op>());
+                            }
+                            int type = typeOf(fields[3]);
+                            if (type < 0) {
+                                throw new IllegalArgumentException("unknown operation " + fields[3]);
+                            }
+                            workload.threads.get(thread).add(new Op(type, Long.parseLong(fields[2]) * 1000, fields[4],
+                                    fields.length > 5 ? fields[5] : null));
+                            break;
+                        default:
+                            throw new IllegalArgumentException("unknown line type " + fields[0]);
+                    }
+                } catch (RuntimeException e) {
+                    throw new IOException(file + ":" + lineNumber + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        return workload;
+    }
+
+    // create the directory in bulk
+    private static void build(TwitEngine engine, Workload workload) {
+        BulkImporter importer = new BulkImporter(engine);
+        for (String[] group : workload.groups) {
+            importer.addGroup(group[0], group[1]);
+        }
+        for (String[] user : workload.users) {
+            importer.addUser(user[0], user[1]);
+        }
+        for (String[] follow : workload.follows) {
+            importer.addFollow(follow[0], follow[1]);
+        }
+        importer.publish();
+    }
+
+    // run every thread's operations and wait for the fan-out to drain
+    private static Report run(TwitEngine engine, Workload workload) throws InterruptedException {
+        Report report = new Report();
+        int threadCount = workload.threads.size();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        AtomicLong peakHeap = new AtomicLong(memory.getHeapMemoryUsage().getUsed());
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "heap-sampler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        sampler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+            }
+        }, 0, 50, TimeUnit.MILLISECONDS);
+        long gcCountBefore = gcCount();
+        long gcMillisBefore = gcMillis();
+
+        CountDownLatch ready = new CountDownLatch(threadCount);
+        CountDownLatch go = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        long[] startedAt = new long[1];
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            List<Op> ops = workload.threads.get(t);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ready.countDown();
+                    try {
+                        go.await();
+                        long start = startedAt[0];
+                        for (Op op : ops) {
+                            long scheduled = start + op.at;
+                            if (op.at > 0) {
+                                for (long wait = scheduled - System.nanoTime(); wait > 0;
+                                     wait = scheduled - System.nanoTime()) {
+                                    LockSupport.parkNanos(wait);
+                                }
+                            }
+                            long began = System.nanoTime();
+                            execute(engine, op);
+                            report.latency[op.type].record(System.nanoTime() - (op.at > 0 ? scheduled : began));
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            }, "load-" + t);
+            thread.start();
+            threads.add(thread);
+        }
+        ready.await();
+        startedAt[0] = System.nanoTime();
+        go.countDown(); // the start time is published by the latch
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long issued = System.nanoTime();
+        FanoutPipeline.getInstance().awaitIdle(10, TimeUnit.MINUTES);
+        long drained = System.nanoTime();
+        sampler.shutdown();
+
+        report.failure = failure.get();
+        if (report.failure != null) {
+            report.failure.printStackTrace();
+        }
+        for (List<Op> ops : workload.threads) {
+            report.operations += ops.size();
+        }
+        report.threads = threadCount;
+        report.runSeconds = (issued - startedAt[0]) / 1e9;
+        report.drainSeconds = (drained - issued) / 1e9;
+        report.peakHeapBytes = Math.max(peakHeap.get(), memory.getHeapMemoryUsage().getUsed());
+        report.gcCount = gcCount() - gcCountBefore;
+        report.gcMillis = gcMillis() - gcMillisBefore;
+        System.gc(); // what the directory and its feeds keep
+        report.retainedHeapBytes = memory.getHeapMemoryUsage().getUsed();
+        report.tweets = TweetStore.getInstance().getLastId();
+        return report;
+    }
+
+    private static void execute(TwitEngine engine, Op op) {
+        switch (op.type) {
+            case POST:
+                engine.post(engine.findUserById(op.first), op.second);
+                break;
+            case FOLLOW:
+                engine.follow(engine.findUserById(op.first), engine.findUserById(op.second));
+                break;
+            case UNFOLLOW:
+                engine.unfollow(engine.findUserById(op.first), engine.findUserById(op.second));
+                break;
+            case READ:
+                engine.readTimelineBefore(engine.findUserById(op.first), TimelineCursor.NEWEST, 20);
+                break;
+            default:
+                engine.search(op.first, 20);
+        }
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+
+    // report class holds the measurements of one run
+    private static final class Report {
+        final Metrics.Histogram[] latency = new Metrics.Histogram[TYPES.length];
+        Throwable failure;
+        int threads;
+        long operations;
+        long tweets;
+        double buildSeconds;
+        double runSeconds; // until every thread issued its last operation
+        double drainSeconds; // until the fan-out delivered the last pushed tweet after that
+        long peakHeapBytes;
+        long retainedHeapBytes;
+        long gcCount;
+        long gcMillis;
+
+        Report() {
+            for (int type = 0; type < TYPES.length; type++) {
+                latency[type] = new Metrics.Histogram();
+            }
+        }
+
+        double throughput() {
+            return operations / runSeconds;
+        }
+
+        String toText() {
+            StringBuilder text = new StringBuilder();
+            text.append(String.format(Locale.ROOT, "threads %d, operations %d, tweets %d%n", threads, operations, tweets));
+            text.append(String.format(Locale.ROOT, "build %.2f s, run %.2f s, fan-out drain %.2f s%n", buildSeconds,
+                    runSeconds, drainSeconds));
+            text.append(String.format(Locale.ROOT, "throughput %.0f ops/s%n", throughput()));
+            text.append(String.format(Locale.ROOT, "heap peak %.1f MB, retained %.1f MB, %d GCs taking %d ms%n",
+                    peakHeapBytes / 1048576.0, retainedHeapBytes / 1048576.0, gcCount, gcMillis));
+            text.append(String.format(Locale.ROOT, "%n%-12s %10s %10s %10s %10s %10s %10s%n", "latency (us)", "count",
+                    "p50", "p90", "p99", "p99.9", "max"));
+            for (int type = 0; type < TYPES.length; type++) {
+                Metrics.Histogram histogram = latency[type];
+                if (histogram.getCount() == 0) {
+                    continue;
+                }
+                text.append(String.format(Locale.ROOT, "%-12s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", TYPES[type],
+                        histogram.getCount(), histogram.getPercentile(0.5) / 1e3, histogram.getPercentile(0.9) / 1e3,
+                        histogram.getPercentile(0.99) / 1e3, histogram.getPercentile(0.999) / 1e3,
+                        histogram.getMax() / 1e3));
+            }
+            return text.toString();
+        }
+
+        String toJson() {
+            StringBuilder json = new StringBuilder("{\n");
+            json.append(String.format(Locale.ROOT, "  \"threads\": %d, \"operations\": %d, \"tweets\": %d,%n", threads,
+                    operations, tweets));
+            json.append(String.format(Locale.ROOT,
+                    "  \"buildSeconds\": %.3f, \"runSeconds\": %.3f, \"drainSeconds\": %.3f, \"throughput\": %.1f,%n",
+                    buildSeconds, runSeconds, drainSeconds, throughput()));
+            json.append(String.format(Locale.ROOT,
+                    "  \"heap\": {\"peakBytes\": %d, \"retainedBytes\": %d, \"gcCount\": %d, \"gcMillis\": %d},%n",
+                    peakHeapBytes, retainedHeapBytes, gcCount, gcMillis));
+            json.append("  \"latencyNanos\": {");
+            int written = 0;
+            for (int type = 0; type < TYPES.length; type++) {
+                Metrics.Histogram histogram = latency[type];
+                if (histogram.getCount() == 0) {
+                    continue;
+                }
+                json.append(written++ > 0 ? "," : "").append(String.format(Locale.ROOT,
+                        "%n    \"%s\": {\"count\": %d, \"p50\": %d, \"p90\": %d, \"p99\": %d, \"p999\": %d, \"max\": %d}",
+                        TYPES[type], histogram.getCount(), histogram.getPercentile(0.5), histogram.getPercentile(0.9),
+                        histogram.getPercentile(0.99), histogram.getPercentile(0.999), histogram.getMax()));
+            }
+            return json.append("\n  },\n  \"failed\": ").append(failure != null).append("\n}\n").toString();
+        }
+    }
+}
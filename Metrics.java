@@ -0,0 +1,372 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// metrics class is the registry of counters, latency histograms and gauges that the hot paths report to.
+// counters are LongAdders and histograms keep log-linear buckets in the manner of HdrHistogram, so
+// recording never locks or allocates. the admin panel's Metrics tab, the text report and the JMX bean
+// all read the same registry.
+//
+// reading the clock twice costs more than an ID lookup or an O(1) statistic, so those are timed on a random
+// sample of calls (startSampled) and only counted otherwise.
+//
+//   -Dtwitapp.metrics=false                turn instrumentation off; the checks fold away in the JIT
+//   -Dtwitapp.metrics.sampleRate=N         time one in N cheap calls, a power of two, 16 by default
+//   -Dtwitapp.metrics.dumpSeconds=N        print the text report to stderr every N seconds
+final class Metrics {
+    // whether instrumentation is on; a constant so disabled timers cost nothing
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("twitapp.metrics", "true"));
+
+    static final long NOT_TIMED = Long.MIN_VALUE; // start of a call that is only counted
+    private static final int SAMPLE_MASK = Integer.highestOneBit(Math.max(1,
+            Integer.getInteger("twitapp.metrics.sampleRate", 16))) - 1;
+
+    private static final Map<String, Counter> COUNTERS = new LinkedHashMap<>(); // in registration order
+    private static final Map<String, Histogram> HISTOGRAMS = new LinkedHashMap<>();
+    private static final Map<String, LongSupplier> GAUGES = new LinkedHashMap<>();
+
+    // posting and fan-out
+    static final Histogram POST = histogram("post");
+    static final Counter TWEETS_PUSHED = counter("tweets.pushed");
+    static final Counter TWEETS_PULLED = counter("tweets.pulled");
+    static final Counter TWEETS_BROADCAST = counter("tweets.broadcast"); // posted to a group subtree
+    static final Histogram FANOUT_BATCH = histogram("fanout.batch"); // time to deliver one batch
+    static final Histogram FANOUT_LAG = histogram("fanout.lag"); // queue-to-delivered time of a batch
+    static final Counter FANOUT_ENTRIES = counter("fanout.entries");
+    static final Histogram READ_TIMELINE = histogram("readTimeline");
+    static final Histogram SEARCH = histogram("search");
+
+    // directory
+    static final Histogram ADD_USER = histogram("addUser");
+    static final Histogram ADD_GROUP = histogram("addGroup");
+    static final Histogram LOOKUP = histogram("lookup");
+    static final Counter FOLLOWS = counter("follows");
+    static final Counter UNFOLLOWS = counter("unfollows");
+
+    // statistics
+    static final Histogram COUNT_TOTALS = histogram("countTotals");
+    static final Histogram VALIDATE_IDS = histogram("validateIds");
+    static final Histogram LAST_UPDATE_USER = histogram("lastUpdateUser");
+    static final Histogram RECENT_USERS = histogram("recentUsers");
+    static final Histogram RECOUNT_TOTALS = histogram("recountTotals");
+    static final Histogram COLLECT_ENTITIES = histogram("collectEntities");
+
+    static {
+        gauge("users", new LongSupplier() {
+            @Override
+            public long getAsLong() {
+                return TwitEngine.getInstance().getRootGroup().getTotalUsers();
+            }
+        });
+        gauge("groups", new LongSupplier() {
+            @Override
+            public long getAsLong() {
+                return TwitEngine.getInstance().getRootGroup().getTotalGroups();
+            }
+        });
+        gauge("tweets", new LongSupplier() {
+            @Override
+            public long getAsLong() {
+                return TweetStore.getInstance().getLastId();
+            }
+        });
+        gauge("fanout.queueDepth", new LongSupplier() {
+            @Override
+            public long getAsLong() {
+                return FanoutPipeline.getInstance().getQueueDepth();
+            }
+        });
+        gauge("inbox.residentBytes", new LongSupplier() {
+            @Override
+            public long getAsLong() {
+                return TimelineRetention.RESIDENT_BYTES.sum();
+            }
+        });
+        gauge("search.residentBytes", new LongSupplier() {
+            @Override
+            public long getAsLong() {
+                return SearchIndex.RESIDENT_BYTES.sum();
+            }
+        });
+        long dumpSeconds = Long.getLong("twitapp.metrics.dumpSeconds", 0);
+        if (ENABLED && dumpSeconds > 0) {
+            startDumping(dumpSeconds);
+        }
+    }
+
+    private Metrics() {
+    }
+
+    // a count of events
+    static final class Counter {
+        private final LongAdder count = new LongAdder();
+
+        void increment() {
+            if (ENABLED) {
+                count.increment();
+            }
+        }
+
+        void add(long n) {
+            if (ENABLED) {
+                count.add(n);
+            }
+        }
+
+        long get() {
+            return count.sum();
+        }
+
+        void reset() {
+            count.reset();
+        }
+    }
+
+    // a latency distribution in nanoseconds; values below 64 are exact, larger ones fall in one of 32
+    // buckets per power of two, so every recorded value is known to within about 3%. the count covers
+    // every call, the distribution the timed ones
+    static final class Histogram {
+        private static final int SUB_BITS = 5;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder calls = new LongAdder(); // timed or not
+        private final LongAdder count = new LongAdder(); // timed
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        // record the time since a start taken with Metrics.start or startSampled
+        void recordSince(long start) {
+            if (!ENABLED) {
+                return;
+            }
+            if (start == NOT_TIMED) {
+                calls.increment();
+            } else {
+                record(System.nanoTime() - start);
+            }
+        }
+
+        // record a value even with instrumentation off, for harnesses that keep histograms of their own
+        void record(long nanos) {
+            long value = Math.max(0, nanos);
+            calls.increment();
+            buckets.getAndIncrement(bucket(value));
+            count.increment();
+            sum.add(value);
+            long seen = max.get();
+            while (value > seen && !max.compareAndSet(seen, value)) {
+                seen = max.get();
+            }
+        }
+
+        long getCount() {
+            return calls.sum();
+        }
+
+        double getMean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        long getMax() {
+            return max.get();
+        }
+
+        // get the value at or below which the given fraction of recorded values fall, 0 if none
+        long getPercentile(double fraction) {
+            long n = count.sum();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * n));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), max.get());
+                }
+            }
+            return max.get(); // recorded while we were counting
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            calls.reset();
+            count.reset();
+            sum.reset();
+            max.set(0);
+        }
+
+        private static int bucket(long value) {
+            if (value < 2 * SUB_COUNT) {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+            return shift * SUB_COUNT + (int) (value >>> shift);
+        }
+
+        // largest value that falls in the bucket
+        private static long highestValue(int bucket) {
+            if (bucket < 2 * SUB_COUNT) {
+                return bucket;
+            }
+            int shift = bucket / SUB_COUNT - 1;
+            long top = bucket % SUB_COUNT + SUB_COUNT;
+            return ((top + 1) << shift) - 1;
+        }
+    }
+
+    // take the start time for Histogram.recordSince
+    static long start() {
+        return ENABLED ? System.nanoTime() : NOT_TIMED;
+    }
+
+    // take the start time for a call too cheap to time every time, NOT_TIMED for the calls left out
+    static long startSampled() {
+        if (!ENABLED || (ThreadLocalRandom.current().nextInt() & SAMPLE_MASK) != 0) {
+            return NOT_TIMED;
+        }
+        return System.nanoTime();
+    }
+
+    static synchronized Counter counter(String name) {
+        Counter counter = new Counter();
+        COUNTERS.put(name, counter);
+        return counter;
+    }
+
+    static synchronized Histogram histogram(String name) {
+        Histogram histogram = new Histogram();
+        HISTOGRAMS.put(name, histogram);
+        return histogram;
+    }
+
+    // register a value read when a report is made
+    static synchronized void gauge(String name, LongSupplier value) {
+        GAUGES.put(name, value);
+    }
+
+    // get every counter and gauge, and the count, mean, percentiles and max in nanoseconds of every histogram
+    static synchronized Map<String, Long> values() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Map.Entry<String, LongSupplier> gauge : GAUGES.entrySet()) {
+            values.put(gauge.getKey(), gauge.getValue().getAsLong());
+        }
+        for (Map.Entry<String, Counter> counter : COUNTERS.entrySet()) {
+            values.put(counter.getKey(), counter.getValue().get());
+        }
+        for (Map.Entry<String, Histogram> entry : HISTOGRAMS.entrySet()) {
+            Histogram histogram = entry.getValue();
+            String name = entry.getKey();
+            values.put(name + ".count", histogram.getCount());
+            values.put(name + ".mean", Math.round(histogram.getMean()));
+            values.put(name + ".p50", histogram.getPercentile(0.5));
+            values.put(name + ".p99", histogram.getPercentile(0.99));
+            values.put(name + ".p999", histogram.getPercentile(0.999));
+            values.put(name + ".max", histogram.getMax());
+        }
+        return values;
+    }
+
+    // describe every metric in a fixed-width table, latencies in microseconds
+    static synchronized String report() {
+        StringBuilder report = new StringBuilder();
+        if (!ENABLED) {
+            report.append("Instrumentation is off (-Dtwitapp.metrics=false)\n");
+        }
+        for (Map.Entry<String, LongSupplier> gauge : GAUGES.entrySet()) {
+            report.append(String.format(Locale.ROOT, "%-20s %12d%n", gauge.getKey(), gauge.getValue().getAsLong()));
+        }
+        for (Map.Entry<String, Counter> counter : COUNTERS.entrySet()) {
+            report.append(String.format(Locale.ROOT, "%-20s %12d%n", counter.getKey(), counter.getValue().get()));
+        }
+        report.append(String.format(Locale.ROOT, "%n%-20s %12s %10s %10s %10s %10s %10s%n",
+                "latency (us)", "count", "mean", "p50", "p99", "p99.9", "max"));
+        for (Map.Entry<String, Histogram> entry : HISTOGRAMS.entrySet()) {
+            Histogram histogram = entry.getValue();
+            report.append(String.format(Locale.ROOT, "%-20s %12d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    entry.getKey(), histogram.getCount(), histogram.getMean() / 1e3,
+                    histogram.getPercentile(0.5) / 1e3, histogram.getPercentile(0.99) / 1e3,
+                    histogram.getPercentile(0.999) / 1e3, histogram.getMax() / 1e3));
+        }
+        return report.toString();
+    }
+
+    // zero every counter and histogram, gauges are left alone
+    static synchronized void reset() {
+        for (Counter counter : COUNTERS.values()) {
+            counter.reset();
+        }
+        for (Histogram histogram : HISTOGRAMS.values()) {
+            histogram.reset();
+        }
+    }
+
+    // publish the registry as twitapp:type=Metrics on the platform MBean server, for JConsole and the like
+    static void registerMBean() {
+        try {
+            ObjectName name = new ObjectName("twitapp:type=Metrics");
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), name);
+            }
+        } catch (JMException e) {
+            e.printStackTrace(); // metrics stay readable in the admin panel
+        }
+    }
+
+    // the registry as seen over JMX
+    private static class Bean implements MetricsMXBean {
+        @Override
+        public Map<String, Long> getValues() {
+            return values();
+        }
+
+        @Override
+        public String getReport() {
+            return report();
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return ENABLED;
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+
+    private static void startDumping(long intervalSeconds) {
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "metrics");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        dumper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                System.err.print(report());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,16 @@
+import java.util.Map;
+
+// metricsMXBean interface is how JMX clients such as JConsole read the Metrics registry
+public interface MetricsMXBean {
+    // get every counter and gauge, and the count, mean, percentiles and max in nanoseconds of every histogram
+    Map<String, Long> getValues();
+
+    // get the text report shown in the admin panel
+    String getReport();
+
+    // check if instrumentation is on
+    boolean isEnabled();
+
+    // zero every counter and histogram
+    void reset();
+}
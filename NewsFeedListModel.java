@@ -0,0 +1,155 @@
+import javax.swing.AbstractListModel;
+import javax.swing.SwingUtilities;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// newsFeedListModel class is a list model over a user's news feed that reads pages of tweets
+// from the feed storage on demand and keeps only a few pages, so an open view costs the same
+// memory however long the feed is; oldest tweet first, only used on the event dispatch thread except
+// for feedUpdated, which coalesces tweets from posting and delivering threads into one refresh per burst
+class NewsFeedListModel extends AbstractListModel<Tweet> implements FeedListener {
+    private static final long serialVersionUID = 1L;
+
+    private static final int PAGE_SIZE = 100; // tweets per page
+    private static final int MAX_PAGES = 4; // pages kept in memory
+
+    private final TwitUser user; // user whose news feed is shown
+    private long head; // newest tweet ID the model covers
+    private int size; // number of feed entries up to head
+    private final Map<Integer, Tweet[]> pages; // recently used pages by page number
+    private final Queue<Tweet> pending; // tweets that entered the feed since the last refresh
+    private final AtomicBoolean flushScheduled; // whether a refresh is queued on the event thread
+    private final AtomicBoolean trimmed; // whether retention dropped entries since the last refresh
+
+    // constructor for NewsFeedListModel class
+    NewsFeedListModel(TwitUser user) {
+        this.user = user;
+        this.pages = new LinkedHashMap<Integer, Tweet[]>(MAX_PAGES + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Tweet[]> eldest) {
+                return size() > MAX_PAGES; // drop the least recently used page
+            }
+        };
+        this.pending = new ConcurrentLinkedQueue<>();
+        this.flushScheduled = new AtomicBoolean();
+        this.trimmed = new AtomicBoolean();
+        user.addFeedListener(this); // register first so no tweet falls between the first read and the listener
+        this.head = user.newestNewsFeedId();
+        this.size = user.countNewsFeed(head);
+    }
+
+    // stop following the news feed when the view is closed
+    void close() {
+        user.removeFeedListener(this);
+        pending.clear();
+    }
+
+    // queue a tweet that entered the feed, from any thread, with one refresh per burst
+    @Override
+    public void feedUpdated(TwitUser feedOwner, Tweet tweet) {
+        pending.add(tweet);
+        scheduleFlush();
+    }
+
+    // reload the feed once its oldest entries have been dropped
+    @Override
+    public void feedTrimmed(TwitUser feedOwner) {
+        trimmed.set(true);
+        scheduleFlush();
+    }
+
+    // queue a refresh on the event dispatch thread unless one is queued already
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            });
+        }
+    }
+
+    // pick up pending tweets, on the event dispatch thread
+    private void flush() {
+        flushScheduled.set(false); // later tweets schedule another flush
+        boolean appendedOnly = !trimmed.getAndSet(false);
+        Tweet tweet;
+        while ((tweet = pending.poll()) != null) {
+            if (tweet.id <= head) {
+                appendedOnly = false; // a delivery landed before tweets already shown
+            }
+        }
+        refresh(appendedOnly);
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public Tweet getElementAt(int index) {
+        int pageNumber = index / PAGE_SIZE;
+        Tweet[] page = pages.get(pageNumber);
+        if (page == null) {
+            page = loadPage(pageNumber);
+            pages.put(pageNumber, page);
+        }
+        return page[index % PAGE_SIZE];
+    }
+
+    // read one page of tweets from the feed storage
+    private Tweet[] loadPage(int pageNumber) {
+        int first = pageNumber * PAGE_SIZE;
+        Tweet[] previous = pages.get(pageNumber - 1);
+        long after = previous != null ? previous[PAGE_SIZE - 1].id : idAtRank(first) - 1; // scrolling reuses the seek
+        long[] ids = user.readNewsFeed(after, Math.min(PAGE_SIZE, size - first));
+        TweetStore store = TweetStore.getInstance();
+        Tweet[] page = new Tweet[PAGE_SIZE];
+        for (int i = 0; i < ids.length && ids[i] <= head; i++) {
+            page[i] = store.get(ids[i]); // shares the stored tweet
+        }
+        return page;
+    }
+
+    // find the tweet ID at a position in the feed by binary search over IDs
+    private long idAtRank(int rank) {
+        long low = 1;
+        long high = head;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (user.countNewsFeed(mid) > rank) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    // pick up delivered tweets; appended tweets extend the list, late arrivals reload it
+    private void refresh(boolean appendedOnly) {
+        int oldSize = size;
+        head = user.newestNewsFeedId();
+        size = user.countNewsFeed(head);
+        if (appendedOnly && size >= oldSize) {
+            if (oldSize % PAGE_SIZE != 0) {
+                pages.remove(oldSize / PAGE_SIZE); // the partially filled last page grows
+            }
+            if (size > oldSize) {
+                fireIntervalAdded(this, oldSize, size - 1);
+            }
+        } else {
+            pages.clear();
+            fireContentsChanged(this, 0, Math.max(oldSize, size) - 1);
+            if (size < oldSize) {
+                fireIntervalRemoved(this, size, oldSize - 1);
+            }
+        }
+    }
+
+}
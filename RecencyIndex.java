@@ -0,0 +1,232 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// recencyIndex class answers "who was updated most recently" for any group without walking the tree.
+// every group keeps a skip list of the users below it ordered by last update time, newest first, and a
+// skip list of the latest pulled tweet of each author followed from below it, since pulled tweets update
+// their readers without touching them.
+//
+// updating the lists on every delivery would slow the fan-out down, so touch only queues the user once
+// and queries first apply the queued users; a user updated many times between two queries is re-indexed
+// once. the lists are changed and read under one lock, so a query never sees a user half moved.
+class RecencyIndex {
+    private final Object lock; // guards the per-group lists and the users' entries
+    private final Queue<TwitUser> touched; // users whose last update time moved since their entry was made
+
+    // one user's last update time, or the latest pulled tweet of an author; immutable, replaced on change
+    static final class Entry {
+        final TwitUser user; // user, or the author of a pulled tweet
+        final long time;
+        final long tweetId; // pulled tweet, 0 for user entries
+
+        Entry(TwitUser user, long time, long tweetId) {
+            this.user = user;
+            this.time = time;
+            this.tweetId = tweetId;
+        }
+    }
+
+    // newest first, then by graph index and tweet so an entry and its replacement never compare equal
+    private static final Comparator<Entry> NEWEST_FIRST = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            int byTime = Long.compare(b.time, a.time);
+            if (byTime != 0) {
+                return byTime;
+            }
+            int byUser = Integer.compare(a.user.graphIndex(), b.user.graphIndex());
+            return byUser != 0 ? byUser : Long.compare(b.tweetId, a.tweetId);
+        }
+    };
+
+    // the lists kept by one group
+    static final class Group {
+        final ConcurrentSkipListSet<Entry> users = new ConcurrentSkipListSet<>(NEWEST_FIRST); // users below
+        final ConcurrentSkipListSet<Entry> pulls = new ConcurrentSkipListSet<>(NEWEST_FIRST); // one per author
+        final Map<TwitUser, Entry> pullsByAuthor = new HashMap<>();
+    }
+
+    // constructor for RecencyIndex class
+    private RecencyIndex() {
+        this.lock = new Object();
+        this.touched = new ConcurrentLinkedQueue<>();
+    }
+
+    // holder class so the singleton is created lazily and published safely
+    private static class Holder {
+        static final RecencyIndex INSTANCE = new RecencyIndex();
+    }
+
+    // singleton instance getter
+    public static RecencyIndex getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    // note that a user's last update time moved, from any thread
+    void touched(TwitUser user) {
+        if (user.recencyQueued.compareAndSet(false, true)) {
+            touched.add(user);
+        }
+    }
+
+    // index a user that was just added to a group, called with the structure write lock held
+    void attached(TwitUser user) {
+        synchronized (lock) {
+            user.recencyEntry = null; // an entry made before the user had a group is in no list
+            reindex(user);
+        }
+    }
+
+    // copy the lists of a group that was just added to a parent group into the new ancestors, called with the
+    // structure write lock held
+    void attached(TwitUserGroup group) {
+        synchronized (lock) {
+            applyTouched(); // so the copied entries are current
+            for (TwitUserGroup ancestor = group.parent; ancestor != null; ancestor = ancestor.parent) {
+                ancestor.recency.users.addAll(group.recency.users);
+                for (Entry pull : group.recency.pulls) {
+                    putPull(ancestor.recency, pull);
+                }
+            }
+        }
+    }
+
+    // record a pulled tweet in every group with followers of its author below
+    void pulled(Tweet tweet) {
+        Entry pull = new Entry(tweet.author, tweet.postedAt, tweet.id);
+        synchronized (lock) {
+            for (Map.Entry<TwitUserGroup, AtomicInteger> group : tweet.author.followerGroups.entrySet()) {
+                if (group.getValue().get() > 0) {
+                    putPull(group.getKey().recency, pull);
+                }
+            }
+        }
+    }
+
+    // get the most recently updated user below the group, or null if there are no users
+    public TwitUser mostRecent(TwitUserGroup group) {
+        List<TwitUser> users = scan(group, 1, Long.MIN_VALUE);
+        return users.isEmpty() ? null : users.get(0);
+    }
+
+    // get up to k users below the group, most recently updated first
+    public List<TwitUser> topRecent(TwitUserGroup group, int k) {
+        return scan(group, k, Long.MIN_VALUE);
+    }
+
+    // get the users below the group updated at or after the given time, most recently updated first
+    public List<TwitUser> activeSince(TwitUserGroup group, long time) {
+        return scan(group, Integer.MAX_VALUE, time);
+    }
+
+    // merge the group's users and pulled tweets newest first; a user's first appearance is its last update
+    private List<TwitUser> scan(TwitUserGroup group, int limit, long since) {
+        synchronized (lock) {
+            applyTouched();
+            return merge(group, limit, since);
+        }
+    }
+
+    private static List<TwitUser> merge(TwitUserGroup group, int limit, long since) {
+        List<TwitUser> result = new ArrayList<>();
+        Set<TwitUser> seen = new HashSet<>();
+        Iterator<Entry> users = group.recency.users.iterator();
+        Iterator<Entry> pulls = group.recency.pulls.iterator();
+        Entry user = next(users);
+        Entry pull = next(pulls);
+        while (result.size() < limit && (user != null || pull != null)) {
+            if (pull == null || (user != null && user.time >= pull.time)) {
+                if (user.time < since) {
+                    break;
+                }
+                if (seen.add(user.user)) {
+                    result.add(user.user);
+                }
+                user = next(users);
+            } else {
+                if (pull.time < since) {
+                    break;
+                }
+                addReaders(pull, group, limit, seen, result);
+                pull = next(pulls);
+            }
+        }
+        return result;
+    }
+
+    // add the followers below the group who had the pulled tweet in their news feed
+    private static void addReaders(Entry pull, TwitUserGroup group, int limit, Set<TwitUser> seen,
+                                   List<TwitUser> result) {
+        SocialGraph graph = SocialGraph.getInstance();
+        long[] followers = graph.followerEdges(pull.user.graphIndex()); // follower index, since pairs
+        for (int i = 0; i < followers.length && result.size() < limit; i += 2) {
+            if (followers[i + 1] < pull.tweetId) {
+                TwitUser follower = graph.user((int) followers[i]);
+                if (isBelow(follower, group) && seen.add(follower)) {
+                    result.add(follower);
+                }
+            }
+        }
+    }
+
+    private static boolean isBelow(TwitUser user, TwitUserGroup group) {
+        for (TwitUserGroup g = user.parent; g != null; g = g.parent) {
+            if (g == group) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Entry next(Iterator<Entry> entries) {
+        return entries.hasNext() ? entries.next() : null;
+    }
+
+    // re-index every queued user, called with the lock held
+    private void applyTouched() {
+        TwitUser user;
+        while ((user = touched.poll()) != null) {
+            user.recencyQueued.set(false); // a touch from now on queues the user again
+            reindex(user);
+        }
+    }
+
+    // replace a user's entry in the lists of its groups, called with the lock held
+    private static void reindex(TwitUser user) {
+        Entry old = user.recencyEntry;
+        long time = user.lastUpdateTime;
+        if (old != null && old.time == time) {
+            return; // already in place
+        }
+        Entry entry = new Entry(user, time, 0);
+        for (TwitUserGroup group = user.parent; group != null; group = group.parent) {
+            group.recency.users.add(entry);
+            if (old != null) {
+                group.recency.users.remove(old);
+            }
+        }
+        user.recencyEntry = entry;
+    }
+
+    // keep the newer of two pulled tweets of the same author, called with the lock held
+    private static void putPull(Group group, Entry pull) {
+        Entry old = group.pullsByAuthor.get(pull.user);
+        if (old == null || old.tweetId < pull.tweetId) {
+            group.pullsByAuthor.put(pull.user, pull);
+            group.pulls.add(pull);
+            if (old != null) {
+                group.pulls.remove(old);
+            }
+        }
+    }
+}
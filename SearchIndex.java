@@ -0,0 +1,318 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// searchIndex class is an inverted index from words, hashtags and mentions to the IDs of the tweets that
+// contain them, filled as tweets are posted or restored, so searches never read a news feed
+//
+// a word is a run of letters, digits and underscores, matched ignoring case. "#java" is indexed as the
+// hashtag #java and the word java, "@alice" as the mention @alice and the word alice. each term's
+// postings are a TweetIdList whose older IDs are frozen into varint-encoded gaps, one to three bytes per
+// ID; the newest few stay hot so tweets indexed slightly out of order land without decoding.
+//
+// hashtag counts for trending are kept per minute for the last day, so windows are rounded to minutes
+class SearchIndex {
+    private static final int HOT_LIMIT = 64; // hot postings that trigger freezing
+    private static final int HOT_TAIL = 16; // newest postings left hot after freezing
+    private static final long MINUTE = 60_000;
+    private static final int TREND_MINUTES = 24 * 60; // longest trending window
+
+    static final LongAdder RESIDENT_BYTES = new LongAdder(); // postings bytes across all terms
+
+    private final Map<String, TweetIdList> postings; // term to ascending tweet IDs
+    private final long[] trendMinute; // minute whose counts each slot holds, guarded by itself
+    private final List<Map<String, Integer>> trendCounts; // hashtag counts per slot, guarded by trendMinute
+
+    // a hashtag and how often it was used in a window
+    public static final class HashtagCount {
+        private final String hashtag;
+        private final int count;
+
+        HashtagCount(String hashtag, int count) {
+            this.hashtag = hashtag;
+            this.count = count;
+        }
+
+        // get the hashtag, with its #
+        public String getHashtag() {
+            return hashtag;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return hashtag + " " + count;
+        }
+    }
+
+    // constructor for SearchIndex class
+    private SearchIndex() {
+        this.postings = new ConcurrentHashMap<>();
+        this.trendMinute = new long[TREND_MINUTES];
+        this.trendCounts = new ArrayList<>(TREND_MINUTES);
+        for (int i = 0; i < TREND_MINUTES; i++) {
+            trendMinute[i] = -1;
+            trendCounts.add(new HashMap<String, Integer>());
+        }
+    }
+
+    // holder class so the singleton is created lazily and published safely
+    private static class Holder {
+        static final SearchIndex INSTANCE = new SearchIndex();
+    }
+
+    // singleton instance getter
+    public static SearchIndex getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    // index a posted or restored tweet
+    void add(Tweet tweet) {
+        Set<String> terms = terms(tweet.text, false);
+        for (String term : terms) {
+            TweetIdList ids = postings.get(term);
+            if (ids == null) {
+                TweetIdList created = new TweetIdList(RESIDENT_BYTES);
+                ids = postings.putIfAbsent(term, created);
+                if (ids == null) {
+                    ids = created;
+                }
+            }
+            synchronized (ids) { // TweetIdList locks on itself, so the add and the freeze go together
+                ids.add(tweet.id);
+                if (ids.hotSize() >= HOT_LIMIT) {
+                    ids.freeze(HOT_LIMIT - HOT_TAIL);
+                }
+            }
+        }
+        countHashtags(terms, tweet.postedAt);
+    }
+
+    // find the newest tweets matching a query, newest first, at most limit of them. terms separated by
+    // spaces must all match and OR separates alternatives, so "java #jobs OR @alice" finds tweets with
+    // the word java and the hashtag #jobs, and tweets mentioning alice
+    public List<Tweet> search(String query, int limit) {
+        List<long[]> alternatives = new ArrayList<>();
+        List<String> clause = new ArrayList<>();
+        for (String word : query.trim().split("\\s+")) {
+            if (word.equals("OR")) {
+                addMatches(clause, alternatives);
+                clause.clear();
+            } else {
+                clause.addAll(terms(word, true));
+            }
+        }
+        addMatches(clause, alternatives);
+        return newestFirst(TweetIdList.merge(alternatives), limit);
+    }
+
+    // find the newest tweets with a hashtag, given with or without its #
+    public List<Tweet> findByHashtag(String hashtag, int limit) {
+        return newestFirst(ids("#" + normalize(hashtag, '#')), limit);
+    }
+
+    // find the newest tweets mentioning a user ID, given with or without its @
+    public List<Tweet> findByMention(String userId, int limit) {
+        return newestFirst(ids("@" + normalize(userId, '@')), limit);
+    }
+
+    // get the k hashtags used most in the tweets posted during the window ending now, most used first
+    public List<HashtagCount> trendingHashtags(long windowMillis, int k) {
+        return trendingHashtags(System.currentTimeMillis(), windowMillis, k);
+    }
+
+    // get the k hashtags used most in the tweets posted during the window ending at the given time
+    public List<HashtagCount> trendingHashtags(long now, long windowMillis, int k) {
+        if (windowMillis <= 0 || windowMillis > TREND_MINUTES * MINUTE) {
+            throw new IllegalArgumentException("Window must be between 1 ms and 24 hours: " + windowMillis);
+        }
+        long last = now / MINUTE;
+        long first = (now - windowMillis) / MINUTE + 1; // whole minutes inside the window
+        first = Math.min(first, last); // at least the current minute
+        Map<String, Integer> totals = new HashMap<>();
+        synchronized (trendMinute) {
+            for (long minute = first; minute <= last; minute++) {
+                int slot = (int) (minute % TREND_MINUTES);
+                if (trendMinute[slot] != minute) {
+                    continue; // no hashtags that minute
+                }
+                for (Map.Entry<String, Integer> count : trendCounts.get(slot).entrySet()) {
+                    Integer total = totals.get(count.getKey());
+                    totals.put(count.getKey(), total == null ? count.getValue() : total + count.getValue());
+                }
+            }
+        }
+        List<HashtagCount> trending = new ArrayList<>(totals.size());
+        for (Map.Entry<String, Integer> total : totals.entrySet()) {
+            trending.add(new HashtagCount(total.getKey(), total.getValue()));
+        }
+        Collections.sort(trending, new Comparator<HashtagCount>() {
+            @Override
+            public int compare(HashtagCount a, HashtagCount b) {
+                int byCount = Integer.compare(b.count, a.count);
+                return byCount != 0 ? byCount : a.hashtag.compareTo(b.hashtag);
+            }
+        });
+        return new ArrayList<>(trending.subList(0, Math.min(k, trending.size())));
+    }
+
+    // get number of distinct terms
+    public int getTermCount() {
+        return postings.size();
+    }
+
+    // get bytes held by postings arrays
+    public long getResidentBytes() {
+        return RESIDENT_BYTES.sum();
+    }
+
+    // intersect the postings of a clause's terms and add the result to the alternatives
+    private void addMatches(List<String> clause, List<long[]> alternatives) {
+        if (clause.isEmpty()) {
+            return;
+        }
+        List<long[]> lists = new ArrayList<>(clause.size());
+        for (String term : clause) {
+            long[] ids = ids(term);
+            if (ids.length == 0) {
+                return; // nothing has every term
+            }
+            lists.add(ids);
+        }
+        Collections.sort(lists, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return Integer.compare(a.length, b.length); // shortest first keeps the candidates few
+            }
+        });
+        long[] matches = lists.get(0);
+        for (int i = 1; i < lists.size() && matches.length > 0; i++) {
+            matches = intersect(matches, lists.get(i));
+        }
+        alternatives.add(matches);
+    }
+
+    private long[] ids(String term) {
+        TweetIdList ids = postings.get(term);
+        return ids == null ? new long[0] : ids.snapshotAfter(0);
+    }
+
+    // IDs in both ascending arrays, galloping through the longer one so a short list skips most of it
+    static long[] intersect(long[] shorter, long[] longer) {
+        long[] common = new long[shorter.length];
+        int count = 0;
+        int from = 0;
+        for (long id : shorter) {
+            int low = from;
+            int bound = from;
+            for (int step = 1; bound < longer.length && longer[bound] < id; step <<= 1) {
+                low = bound + 1;
+                bound += step;
+            }
+            int high = Math.min(bound, longer.length - 1);
+            while (low <= high) { // first index at or after from with an ID not below id
+                int middle = (low + high) >>> 1;
+                if (longer[middle] < id) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            from = low;
+            if (from == longer.length) {
+                break;
+            }
+            if (longer[from] == id) {
+                common[count++] = id;
+            }
+        }
+        return Arrays.copyOf(common, count);
+    }
+
+    private static List<Tweet> newestFirst(long[] ids, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive: " + limit);
+        }
+        TweetStore store = TweetStore.getInstance();
+        List<Tweet> tweets = new ArrayList<>(Math.min(limit, ids.length));
+        for (int i = ids.length - 1; i >= 0 && tweets.size() < limit; i--) {
+            tweets.add(store.get(ids[i]));
+        }
+        return tweets;
+    }
+
+    // add a tweet's hashtags to the counts of its minute
+    private void countHashtags(Set<String> terms, long postedAt) {
+        long minute = postedAt / MINUTE;
+        int slot = (int) (minute % TREND_MINUTES);
+        synchronized (trendMinute) {
+            for (String term : terms) {
+                if (term.charAt(0) != '#') {
+                    continue;
+                }
+                if (trendMinute[slot] != minute) {
+                    if (trendMinute[slot] > minute) {
+                        return; // older than the last day
+                    }
+                    trendMinute[slot] = minute; // the slot held a minute from a day ago
+                    trendCounts.get(slot).clear();
+                }
+                Map<String, Integer> counts = trendCounts.get(slot);
+                Integer count = counts.get(term);
+                counts.put(term, count == null ? 1 : count + 1);
+            }
+        }
+    }
+
+    // split text into lower-case words, hashtags and mentions; a query word keeps only its hashtag or
+    // mention, so "#java" finds the hashtag and not every use of the word
+    static Set<String> terms(String text, boolean query) {
+        Set<String> terms = new LinkedHashSet<>();
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !isWordChar(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && isWordChar(text.charAt(i))) {
+                i++;
+            }
+            if (i == start) {
+                break;
+            }
+            String word = text.substring(start, i).toLowerCase(Locale.ROOT);
+            char prefix = start > 0 ? text.charAt(start - 1) : ' ';
+            if (prefix == '#' || prefix == '@') {
+                terms.add(prefix + word);
+                if (query) {
+                    continue;
+                }
+            }
+            terms.add(word);
+        }
+        return terms;
+    }
+
+    // lower-case a hashtag or user ID without its prefix
+    private static String normalize(String term, char prefix) {
+        String bare = term.length() > 0 && term.charAt(0) == prefix ? term.substring(1) : term;
+        return bare.toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+}
@@ -0,0 +1,167 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// sentimentAnalyzer class scores tweet text once, when it is posted, against a weighted word lexicon
+//
+// words are runs of non-whitespace and match the lexicon ignoring case, so "Good" counts but "good!" does not;
+// the score is the sum of the weights of matching words, positive above zero and negative below
+public class SentimentAnalyzer {
+    // lexicon used when -Dtwitapp.lexicon is not set
+    private static final String[] DEFAULT_WORDS = { "good", "great", "excellent", "happy", "positive" };
+
+    private final char[][] words; // open-addressing table of lower-case words, null for empty slots
+    private final int[] weights; // weight of the word in the same slot
+    private final int mask;
+    private final int size;
+
+    // constructor for SentimentAnalyzer class, duplicate words keep the last weight
+    public SentimentAnalyzer(String[] lexiconWords, int[] lexiconWeights) {
+        int capacity = Integer.highestOneBit(Math.max(4, lexiconWords.length * 2 - 1)) << 1; // at most half full
+        this.words = new char[capacity][];
+        this.weights = new int[capacity];
+        this.mask = capacity - 1;
+        int count = 0;
+        for (int i = 0; i < lexiconWords.length; i++) {
+            char[] word = lexiconWords[i].toCharArray();
+            for (int j = 0; j < word.length; j++) {
+                word[j] = Character.toLowerCase(word[j]); // fold case the same way as score does
+            }
+            int slot = hash(word) & mask;
+            while (words[slot] != null && !Arrays.equals(words[slot], word)) {
+                slot = (slot + 1) & mask;
+            }
+            count += words[slot] == null ? 1 : 0;
+            words[slot] = word;
+            weights[slot] = lexiconWeights[i];
+        }
+        this.size = count;
+    }
+
+    // holder class so the analyzer is created lazily and published safely
+    private static class Holder {
+        static final SentimentAnalyzer INSTANCE = fromSystemProperties();
+    }
+
+    // get the analyzer used for posted tweets
+    public static SentimentAnalyzer getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    // read the lexicon file named by -Dtwitapp.lexicon, or use the built-in positive words
+    static SentimentAnalyzer fromSystemProperties() {
+        String path = System.getProperty("twitapp.lexicon");
+        if (path == null || path.isEmpty()) {
+            return new SentimentAnalyzer(DEFAULT_WORDS, new int[] { 1, 1, 1, 1, 1 });
+        }
+        try {
+            return load(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read lexicon " + path, e);
+        }
+    }
+
+    // load a lexicon file with one word per line, optionally followed by an integer weight (default 1);
+    // negative weights mark negative words, blank lines and lines starting with # are skipped
+    public static SentimentAnalyzer load(String path) throws IOException {
+        List<String> lexiconWords = new ArrayList<>();
+        List<Integer> lexiconWeights = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("[\\s,]+");
+                if (fields.length > 2) {
+                    throw new IOException(path + ":" + lineNumber + ": expected a word and an optional weight");
+                }
+                try {
+                    lexiconWeights.add(fields.length == 2 ? Integer.parseInt(fields[1]) : 1);
+                } catch (NumberFormatException e) {
+                    throw new IOException(path + ":" + lineNumber + ": bad weight \"" + fields[1] + "\"");
+                }
+                lexiconWords.add(fields[0]);
+            }
+        }
+        int[] weightArray = new int[lexiconWeights.size()];
+        for (int i = 0; i < weightArray.length; i++) {
+            weightArray[i] = lexiconWeights.get(i);
+        }
+        return new SentimentAnalyzer(lexiconWords.toArray(new String[0]), weightArray);
+    }
+
+    // score a tweet in one pass over its characters without allocating
+    public int score(CharSequence text) {
+        int score = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && isSpace(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            int hash = 0;
+            while (i < length && !isSpace(text.charAt(i))) {
+                hash = 31 * hash + Character.toLowerCase(text.charAt(i));
+                i++;
+            }
+            if (i > start) {
+                score += lookup(text, start, i, mix(hash));
+            }
+        }
+        return score;
+    }
+
+    // get number of distinct words in the lexicon
+    public int size() {
+        return size;
+    }
+
+    // find the weight of text[start, end) in the table, 0 if it is not a lexicon word
+    private int lookup(CharSequence text, int start, int end, int hash) {
+        for (int slot = hash & mask; words[slot] != null; slot = (slot + 1) & mask) {
+            char[] word = words[slot];
+            if (word.length == end - start && matches(word, text, start)) {
+                return weights[slot];
+            }
+        }
+        return 0;
+    }
+
+    private static boolean matches(char[] word, CharSequence text, int start) {
+        for (int j = 0; j < word.length; j++) {
+            if (Character.toLowerCase(text.charAt(start + j)) != word[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(char[] word) {
+        int hash = 0;
+        for (char c : word) {
+            hash = 31 * hash + c;
+        }
+        return mix(hash);
+    }
+
+    // spread the string hash so linear probing does not cluster
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    // same characters as \s in a regular expression
+    private static boolean isSpace(char c) {
+        return c == ' ' || (c >= '\t' && c <= '\r');
+    }
+}
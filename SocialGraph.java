@@ -0,0 +1,204 @@
+import java.util.Arrays;
+
+// socialGraph class holds the follow edges between users. every user gets a dense int index when it joins
+// a group or first takes part in a follow, and each user's followers and followings are primitive hash maps from index to the tweet ID the
+// follow started after, so follow, unfollow and isFollowing are O(1) and fan-out walks flat arrays.
+//
+// concurrency: each adjacency map is guarded by its own monitor and readers work on snapshots; an edge is
+// added to the followed user's followers before the follower's followings and removed in the same order
+class SocialGraph {
+    private static final long NONE = -1; // value returned for a missing edge
+
+    private volatile Node[] nodes; // users and their edges by index
+    private int size; // number of indexes handed out, guarded by this
+
+    // a user and its edges in both directions
+    private static class Node {
+        final TwitUser user;
+        final IntLongMap followers = new IntLongMap(); // follower index to since
+        final IntLongMap followings = new IntLongMap(); // followed index to since
+
+        Node(TwitUser user) {
+            this.user = user;
+        }
+    }
+
+    // constructor for SocialGraph class
+    private SocialGraph() {
+        this.nodes = new Node[1024];
+    }
+
+    // holder class so the singleton is created lazily and published safely
+    private static class Holder {
+        static final SocialGraph INSTANCE = new SocialGraph();
+    }
+
+    // singleton instance getter
+    public static SocialGraph getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    // give a user the next index unless it already has one, returns the user's index
+    synchronized int register(TwitUser user) {
+        if (user.index >= 0) {
+            return user.index; // another thread got there first
+        }
+        Node[] table = nodes;
+        if (size == table.length) {
+            table = Arrays.copyOf(table, size + (size >> 1)); // grow by half
+        }
+        table[size] = new Node(user);
+        nodes = table; // publish the node with the array
+        user.index = size; // after the node, so whoever reads the index finds it
+        return size++;
+    }
+
+    // get the user with an index
+    public TwitUser user(int index) {
+        return nodes[index].user;
+    }
+
+    // add an edge that starts after the given tweet ID, returns false if it is already there
+    public boolean follow(int follower, int followed, long since) {
+        IntLongMap followers = nodes[followed].followers;
+        synchronized (followers) {
+            if (!followers.putIfAbsent(follower, since)) {
+                return false;
+            }
+        }
+        IntLongMap followings = nodes[follower].followings;
+        synchronized (followings) {
+            followings.putIfAbsent(followed, since);
+        }
+        return true;
+    }
+
+    // remove an edge, returns the tweet ID it started after, or -1 if there was none
+    public long unfollow(int follower, int followed) {
+        IntLongMap followers = nodes[followed].followers;
+        long since;
+        synchronized (followers) {
+            since = followers.remove(follower, NONE);
+        }
+        if (since == NONE) {
+            return NONE;
+        }
+        IntLongMap followings = nodes[follower].followings;
+        synchronized (followings) {
+            followings.remove(followed, NONE);
+        }
+        return since;
+    }
+
+    // check if one user follows another
+    public boolean isFollowing(int follower, int followed) {
+        IntLongMap followings = nodes[follower].followings;
+        synchronized (followings) {
+            return followings.containsKey(followed);
+        }
+    }
+
+    // get the tweet ID a follow started after, or -1 if there is no such edge
+    public long followedSince(int follower, int followed) {
+        IntLongMap followings = nodes[follower].followings;
+        synchronized (followings) {
+            return followings.get(followed, NONE);
+        }
+    }
+
+    // get number of followers of a user
+    public int followerCount(int user) {
+        IntLongMap followers = nodes[user].followers;
+        synchronized (followers) {
+            return followers.size();
+        }
+    }
+
+    // get number of users a user follows
+    public int followingCount(int user) {
+        IntLongMap followings = nodes[user].followings;
+        synchronized (followings) {
+            return followings.size();
+        }
+    }
+
+    // copy the indexes of a user's followers
+    public int[] followers(int user) {
+        IntLongMap followers = nodes[user].followers;
+        synchronized (followers) {
+            return followers.keys();
+        }
+    }
+
+    // copy the indexes of the users a user follows
+    public int[] followings(int user) {
+        IntLongMap followings = nodes[user].followings;
+        synchronized (followings) {
+            return followings.keys();
+        }
+    }
+
+    // copy a user's followers as follower index, since pairs
+    public long[] followerEdges(int user) {
+        IntLongMap followers = nodes[user].followers;
+        synchronized (followers) {
+            return followers.entries();
+        }
+    }
+
+    // copy the users a user follows as followed index, since pairs
+    public long[] followingEdges(int user) {
+        IntLongMap followings = nodes[user].followings;
+        synchronized (followings) {
+            return followings.entries();
+        }
+    }
+
+    // get the indexes of users who follow the user back, ascending
+    public int[] mutualFollows(int user) {
+        int[] followings = followings(user);
+        IntLongMap followers = nodes[user].followers;
+        int count = 0;
+        synchronized (followers) {
+            for (int followed : followings) {
+                if (followers.containsKey(followed)) {
+                    followings[count++] = followed;
+                }
+            }
+        }
+        int[] mutual = Arrays.copyOf(followings, count);
+        Arrays.sort(mutual);
+        return mutual;
+    }
+
+    // suggest up to limit users the user does not follow yet, ranked by how many of the user's followings
+    // follow them (two hops out), ties going to the lower index
+    public int[] whoToFollow(int user, int limit) {
+        int[] followings = followings(user);
+        IntLongMap followed = new IntLongMap(); // the user and everyone already followed
+        followed.putIfAbsent(user, 0);
+        for (int following : followings) {
+            followed.putIfAbsent(following, 0);
+        }
+        IntLongMap votes = new IntLongMap(); // candidate index to number of followings following it
+        for (int following : followings) {
+            for (int candidate : followings(following)) {
+                if (!followed.containsKey(candidate)) {
+                    votes.addTo(candidate, 1);
+                }
+            }
+        }
+        // votes in the high half and the inverted index in the low half, so one sort ranks both
+        long[] entries = votes.entries();
+        long[] ranked = new long[entries.length / 2];
+        for (int i = 0; i < ranked.length; i++) {
+            ranked[i] = entries[2 * i + 1] << 32 | (Integer.MAX_VALUE - entries[2 * i]);
+        }
+        Arrays.sort(ranked);
+        int[] suggestions = new int[Math.min(limit, ranked.length)];
+        for (int i = 0; i < suggestions.length; i++) {
+            suggestions[i] = Integer.MAX_VALUE - (int) ranked[ranked.length - 1 - i];
+        }
+        return suggestions;
+    }
+}
@@ -0,0 +1,77 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// timelineBenchmark compares post latency and heap use of the timeline strategies
+// usage: java TimelineBenchmark [followers] [posts] [pushThreshold]
+public class TimelineBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int followers = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int posts = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+        int threshold = args.length > 2 ? Integer.parseInt(args[2]) : TimelineStrategy.DEFAULT_PUSH_THRESHOLD;
+
+        TimelineStrategy[] strategies = {
+                TimelineStrategy.push(), TimelineStrategy.pull(), TimelineStrategy.hybrid(threshold)
+        };
+        System.out.printf("followers=%d posts=%d%n", followers, posts);
+        System.out.printf("%-16s %14s %14s %14s %14s%n", "strategy", "post ns/op", "deliver ns/op", "heap MB",
+                "read ns/op");
+        for (int round = 0; round < 2; round++) { // first round warms up the JIT
+            for (TimelineStrategy strategy : strategies) {
+                run(strategy, followers, posts, round == 1);
+            }
+        }
+    }
+
+    // post from one author to many followers and report the cost
+    private static void run(TimelineStrategy strategy, int followerCount, int posts, boolean report)
+            throws InterruptedException {
+        TwitUser.timelineStrategy = strategy;
+        TwitUserGroup root = new TwitUserGroup("Root");
+        TwitUser author = new TwitUser("author");
+        root.addMember(author);
+        List<TwitUser> followers = new ArrayList<>(followerCount);
+        for (int i = 0; i < followerCount; i++) {
+            TwitUser follower = new TwitUser("follower" + i);
+            root.addMember(follower);
+            follower.follow(author);
+            followers.add(follower);
+        }
+
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        for (int i = 0; i < posts; i++) {
+            author.postTweet("benchmark tweet number " + i + " is good");
+        }
+        long postNanos = System.nanoTime() - start;
+        FanoutPipeline.getInstance().awaitIdle(10, TimeUnit.MINUTES); // wait for pushed copies
+        long deliverNanos = System.nanoTime() - start;
+        long heapAfter = usedHeap();
+
+        int reads = Math.min(followerCount, 1_000);
+        long readStart = System.nanoTime();
+        long tweetsRead = 0;
+        for (int i = 0; i < reads; i++) {
+            tweetsRead += followers.get(i).getNewsFeed().size();
+        }
+        long readNanos = System.nanoTime() - readStart;
+        if (tweetsRead != (long) reads * posts) {
+            throw new IllegalStateException(strategy + " delivered " + tweetsRead + " tweets");
+        }
+
+        if (report) {
+            System.out.printf("%-16s %14d %14d %14.1f %14d%n", strategy, postNanos / posts, deliverNanos / posts,
+                    (heapAfter - heapBefore) / (1024.0 * 1024.0), readNanos / reads);
+        }
+    }
+
+    // measure used heap after asking for a collection
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
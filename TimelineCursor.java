@@ -0,0 +1,70 @@
+// timelineCursor class is an opaque position in a news feed, either just at a tweet ID or at a point in time;
+// pages hand out cursors and clients pass them back as is, or as the string from toString
+public final class TimelineCursor {
+    public static final TimelineCursor NEWEST = new TimelineCursor(false, Long.MAX_VALUE); // before every tweet
+    public static final TimelineCursor OLDEST = new TimelineCursor(false, 0); // after nothing, so the whole feed
+
+    private final boolean time; // whether value is a time in milliseconds rather than a tweet ID
+    private final long value;
+
+    // constructor for TimelineCursor class
+    private TimelineCursor(boolean time, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative cursor position: " + value);
+        }
+        this.time = time;
+        this.value = value;
+    }
+
+    // cursor at a tweet; reading before it excludes the tweet and reading after it excludes it too
+    public static TimelineCursor ofTweet(long tweetId) {
+        return new TimelineCursor(false, tweetId);
+    }
+
+    // cursor at a time; tweets posted at that millisecond count as after it
+    public static TimelineCursor ofTime(long millis) {
+        return new TimelineCursor(true, millis);
+    }
+
+    // read a cursor back from its string form
+    public static TimelineCursor parse(String token) {
+        if (token == null || token.length() < 2 || (token.charAt(0) != 'i' && token.charAt(0) != 't')) {
+            throw new IllegalArgumentException("Bad timeline cursor: " + token);
+        }
+        try {
+            return new TimelineCursor(token.charAt(0) == 't', Long.parseLong(token.substring(1), Character.MAX_RADIX));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad timeline cursor: " + token);
+        }
+    }
+
+    // reads before the cursor return tweet IDs less than this
+    long beforeId() {
+        return time ? TweetStore.getInstance().firstIdPostedAtOrAfter(value) : value;
+    }
+
+    // reads after the cursor return tweet IDs greater than this
+    long afterId() {
+        return time ? TweetStore.getInstance().firstIdPostedAtOrAfter(value) - 1 : value;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof TimelineCursor)) {
+            return false;
+        }
+        TimelineCursor cursor = (TimelineCursor) other;
+        return time == cursor.time && value == cursor.value;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(value) * 31 + (time ? 1 : 0);
+    }
+
+    // string form accepted by parse
+    @Override
+    public String toString() {
+        return (time ? "t" : "i") + Long.toString(value, Character.MAX_RADIX);
+    }
+}
@@ -0,0 +1,47 @@
+import java.util.Collections;
+import java.util.List;
+
+// timelinePage class is one page of a news feed, newest tweet first, with the cursors for the pages on
+// either side of it
+public final class TimelinePage {
+    private final List<Tweet> tweets; // newest first
+    private final TimelineCursor olderCursor; // read before it for the next older page
+    private final TimelineCursor newerCursor; // read after it for the next newer page
+    private final boolean hasOlder;
+    private final boolean hasNewer;
+
+    // constructor for TimelinePage class
+    TimelinePage(List<Tweet> tweets, TimelineCursor olderCursor, TimelineCursor newerCursor,
+            boolean hasOlder, boolean hasNewer) {
+        this.tweets = Collections.unmodifiableList(tweets);
+        this.olderCursor = olderCursor;
+        this.newerCursor = newerCursor;
+        this.hasOlder = hasOlder;
+        this.hasNewer = hasNewer;
+    }
+
+    // get the tweets on the page, newest first
+    public List<Tweet> getTweets() {
+        return tweets;
+    }
+
+    // get the cursor to read older tweets before
+    public TimelineCursor getOlderCursor() {
+        return olderCursor;
+    }
+
+    // get the cursor to read newer tweets after
+    public TimelineCursor getNewerCursor() {
+        return newerCursor;
+    }
+
+    // check if the feed had older tweets when the page was read
+    public boolean hasOlder() {
+        return hasOlder;
+    }
+
+    // check if the feed had newer tweets when the page was read
+    public boolean hasNewer() {
+        return hasNewer;
+    }
+}
@@ -0,0 +1,209 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// timelineRetention class bounds the memory held by news feed inboxes, the only per-follower copy of a tweet.
+// inbox entries past the age or entry limit are evicted, either frozen into the compact cold segment of the
+// inbox, where they stay readable, or dropped from the feed. dropping takes only pushed entries, lowers the
+// group totals to match and is journaled, so it survives a restart; it holds the structure write lock, so
+// posts wait for it, and it is therefore done only by the sweeper and only for inboxes that hold entries to
+// drop. when inboxes together exceed the memory budget, the feeds read least recently are frozen whole, and
+// dropped if that is still not enough; feeds with an open view are left alone. with no limits set, which is
+// the default, nothing is evicted.
+//
+//   -Dtwitapp.retention.maxEntries=N      hot inbox entries kept per user
+//   -Dtwitapp.retention.maxAgeSeconds=N   age after which inbox entries are evicted
+//   -Dtwitapp.retention.budgetMB=N        memory budget for all inboxes
+//   -Dtwitapp.retention.evict=cold|drop   what happens to evicted entries, cold by default
+//   -Dtwitapp.retention.sweepMillis=N     how often ages and the budget are checked, 1000 by default
+class TimelineRetention {
+    static final LongAdder RESIDENT_BYTES = new LongAdder(); // inbox array bytes across all users
+
+    private final int maxEntries; // 0 for no limit
+    private final long maxAgeMillis; // 0 for no limit
+    private final long budgetBytes; // 0 for no limit
+    private final boolean drop; // drop evicted entries instead of freezing them
+    private final LongAdder evictedEntries; // entries frozen into cold segments
+    private final LongAdder droppedEntries; // entries removed from feeds
+    private final LongAdder demotedTimelines; // inboxes frozen whole to meet the budget
+
+    // constructor for TimelineRetention class
+    TimelineRetention(int maxEntries, long maxAgeMillis, long budgetBytes, boolean drop) {
+        this.maxEntries = maxEntries;
+        this.maxAgeMillis = maxAgeMillis;
+        this.budgetBytes = budgetBytes;
+        this.drop = drop;
+        this.evictedEntries = new LongAdder();
+        this.droppedEntries = new LongAdder();
+        this.demotedTimelines = new LongAdder();
+    }
+
+    // holder class so the policy is created lazily and published safely
+    private static class Holder {
+        static final TimelineRetention INSTANCE = fromSystemProperties();
+    }
+
+    // get the retention policy applied to every inbox
+    public static TimelineRetention getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    // read the limits from system properties and start sweeping if any is set
+    static TimelineRetention fromSystemProperties() {
+        String evict = System.getProperty("twitapp.retention.evict", "cold");
+        if (!evict.equals("cold") && !evict.equals("drop")) {
+            throw new IllegalArgumentException("twitapp.retention.evict must be cold or drop, not " + evict);
+        }
+        TimelineRetention retention = new TimelineRetention(
+                Integer.getInteger("twitapp.retention.maxEntries", 0),
+                Long.getLong("twitapp.retention.maxAgeSeconds", 0) * 1000,
+                Long.getLong("twitapp.retention.budgetMB", 0) << 20,
+                evict.equals("drop"));
+        if (retention.isEnabled()) {
+            retention.startSweeping(Long.getLong("twitapp.retention.sweepMillis", 1000));
+        }
+        return retention;
+    }
+
+    // check if any limit is set
+    public boolean isEnabled() {
+        return maxEntries > 0 || maxAgeMillis > 0 || budgetBytes > 0;
+    }
+
+    // check the entry limit right after a delivery, with some slack so evictions come in batches; dropping
+    // waits for the sweeper, so fan-out workers never take the structure write lock
+    void delivered(TwitUser user) {
+        if (!drop && maxEntries > 0 && user.inbox.hotSize() > maxEntries + Math.max(16, maxEntries / 4)) {
+            trimEntries(user);
+        }
+    }
+
+    // apply the age and entry limits to every user, then the memory budget
+    public void sweep() {
+        List<TwitUser> users = new ArrayList<>();
+        for (Object entity : TwitEngine.getInstance().getEntities()) {
+            if (entity instanceof TwitUser) {
+                users.add((TwitUser) entity);
+            }
+        }
+        if (maxAgeMillis > 0) {
+            // post times grow with the ID, so everything up to this ID is too old
+            long expired = TweetStore.getInstance().firstIdPostedAtOrAfter(System.currentTimeMillis() - maxAgeMillis) - 1;
+            for (TwitUser user : users) {
+                evictUpTo(user, expired);
+            }
+        }
+        if (maxEntries > 0) {
+            for (TwitUser user : users) {
+                trimEntries(user);
+            }
+        }
+        if (budgetBytes > 0 && getResidentBytes() > budgetBytes) {
+            enforceBudget(users);
+        }
+    }
+
+    // evict the oldest inbox entries past the entry limit
+    private void trimEntries(TwitUser user) {
+        if (drop) {
+            long newestDropped;
+            synchronized (user.inbox) { // pick the ID while no other trim changes the list
+                int excess = user.inbox.size() - maxEntries;
+                if (excess <= 0) {
+                    return;
+                }
+                newestDropped = user.inbox.get(excess - 1);
+            }
+            droppedEntries.add(user.dropFeedUpTo(newestDropped));
+        } else {
+            int excess = user.inbox.hotSize() - maxEntries;
+            if (excess > 0) { // an inbox under the limit keeps everything hot
+                evictedEntries.add(user.inbox.freeze(excess));
+            }
+        }
+    }
+
+    // evict inbox entries with IDs up to the given one
+    private void evictUpTo(TwitUser user, long id) {
+        if (drop) {
+            droppedEntries.add(user.dropFeedUpTo(id));
+        } else {
+            evictedEntries.add(user.inbox.freezeUpTo(id));
+        }
+    }
+
+    // freeze the least recently read inboxes until the budget is met, then drop them if it is still not
+    private void enforceBudget(List<TwitUser> users) {
+        Collections.sort(users, new Comparator<TwitUser>() {
+            @Override
+            public int compare(TwitUser a, TwitUser b) {
+                return Long.compare(a.lastFeedRead, b.lastFeedRead);
+            }
+        });
+        for (TwitUser user : users) {
+            if (getResidentBytes() <= budgetBytes) {
+                return;
+            }
+            if (user.feedListeners.isEmpty() && user.inbox.hotSize() > 0) {
+                evictedEntries.add(user.inbox.freeze(Integer.MAX_VALUE));
+                demotedTimelines.increment();
+            }
+        }
+        for (TwitUser user : users) {
+            if (getResidentBytes() <= budgetBytes) {
+                return;
+            }
+            if (user.feedListeners.isEmpty() && user.inbox.size() > 0) {
+                droppedEntries.add(user.dropFeedUpTo(user.inbox.last()));
+            }
+        }
+    }
+
+    // run sweep on a daemon thread every interval
+    private void startSweeping(long intervalMillis) {
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "retention");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sweep();
+                } catch (RuntimeException e) {
+                    e.printStackTrace(); // try again next time
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // get bytes held by inbox arrays across all users
+    public long getResidentBytes() {
+        return RESIDENT_BYTES.sum();
+    }
+
+    // get number of inbox entries frozen into cold segments
+    public long getEvictedEntries() {
+        return evictedEntries.sum();
+    }
+
+    // get number of inbox entries dropped from feeds
+    public long getDroppedEntries() {
+        return droppedEntries.sum();
+    }
+
+    // get number of inboxes frozen whole to meet the memory budget
+    public long getDemotedTimelines() {
+        return demotedTimelines.sum();
+    }
+}
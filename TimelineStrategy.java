@@ -0,0 +1,69 @@
+// timelineStrategy decides how a posted tweet reaches the author's followers
+interface TimelineStrategy {
+    // follower count at which the hybrid strategy switches from push to pull
+    int DEFAULT_PUSH_THRESHOLD = 1000;
+
+    // return true to copy the tweet into follower inboxes, false to have followers pull it on read
+    boolean shouldPush(TwitUser author);
+
+    // push every tweet to every follower when it is posted
+    static TimelineStrategy push() {
+        return new TimelineStrategy() {
+            @Override
+            public boolean shouldPush(TwitUser author) {
+                return true;
+            }
+
+            @Override
+            public String toString() {
+                return "push";
+            }
+        };
+    }
+
+    // store every tweet only in the author's log and merge it into follower feeds on read
+    static TimelineStrategy pull() {
+        return new TimelineStrategy() {
+            @Override
+            public boolean shouldPush(TwitUser author) {
+                return false;
+            }
+
+            @Override
+            public String toString() {
+                return "pull";
+            }
+        };
+    }
+
+    // push for authors with fewer followers than the threshold, pull for the rest
+    static TimelineStrategy hybrid(int pushThreshold) {
+        return new TimelineStrategy() {
+            @Override
+            public boolean shouldPush(TwitUser author) {
+                return author.getFollowerCount() < pushThreshold;
+            }
+
+            @Override
+            public String toString() {
+                return "hybrid(" + pushThreshold + ")";
+            }
+        };
+    }
+
+    // build the strategy named by twitapp.timeline (push, pull or hybrid) and twitapp.pushThreshold
+    static TimelineStrategy fromSystemProperties() {
+        String name = System.getProperty("twitapp.timeline", "hybrid");
+        int threshold = Integer.getInteger("twitapp.pushThreshold", DEFAULT_PUSH_THRESHOLD);
+        switch (name) {
+            case "push":
+                return push();
+            case "pull":
+                return pull();
+            case "hybrid":
+                return hybrid(threshold);
+            default:
+                throw new IllegalArgumentException("Unknown timeline strategy: " + name);
+        }
+    }
+}
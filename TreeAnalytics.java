@@ -0,0 +1,132 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// treeAnalytics class runs a TreeVisitor over a group and everything below it on a ForkJoinPool. work is
+// split by subtree size, which every group knows from its totals: big subgroups become tasks of their own
+// and runs of small members are batched, so wide and deep trees both keep every core busy while small trees
+// are walked on the calling thread. results are the same as the sequential walk.
+//
+// -Dtwitapp.analytics.sequential=true (or setSequential) forces the single-threaded walk for comparison
+class TreeAnalytics {
+    private static final int SPLIT_SIZE = 2048; // users and groups walked by one task
+
+    private static volatile boolean sequential = Boolean.getBoolean("twitapp.analytics.sequential");
+
+    // force the single-threaded walk, or allow parallel evaluation again
+    public static void setSequential(boolean value) {
+        sequential = value;
+    }
+
+    // check if evaluation is forced to be single-threaded
+    public static boolean isSequential() {
+        return sequential;
+    }
+
+    // reduce the group and everything below it
+    public static <R> R evaluate(TwitUserGroup group, TreeVisitor<R> visitor) {
+        if (sequential || size(group) <= SPLIT_SIZE) {
+            return walk(group, visitor);
+        }
+        return ForkJoinPool.commonPool().invoke(new GroupTask<>(group, visitor));
+    }
+
+    // reduce the group and everything below it on the calling thread, depth first
+    public static <R> R walk(TwitUserGroup group, TreeVisitor<R> visitor) {
+        R result = visitor.visitGroup(group);
+        for (Object member : group.getMembers()) {
+            result = visitor.combine(result, visit(member, visitor));
+        }
+        return result;
+    }
+
+    // reduce one member on the calling thread
+    private static <R> R visit(Object member, TreeVisitor<R> visitor) {
+        if (member instanceof TwitUser) {
+            return visitor.visitUser((TwitUser) member);
+        }
+        return walk((TwitUserGroup) member, visitor);
+    }
+
+    // number of users and groups in a subtree, from the group's totals
+    private static long size(TwitUserGroup group) {
+        return group.totalUsers.sum() + group.totalGroups.sum();
+    }
+
+    // reduce a big group: large subgroups are forked on their own, runs of small members in batches
+    private static class GroupTask<R> extends RecursiveTask<R> {
+        private static final long serialVersionUID = 1L;
+
+        private final TwitUserGroup group;
+        private final transient TreeVisitor<R> visitor;
+
+        GroupTask(TwitUserGroup group, TreeVisitor<R> visitor) {
+            this.group = group;
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected R compute() {
+            if (size(group) <= SPLIT_SIZE) {
+                return walk(group, visitor);
+            }
+            List<Object> members = group.getMembers();
+            List<RecursiveTask<R>> parts = new ArrayList<>();
+            int batchStart = 0;
+            long batchSize = 0;
+            for (int i = 0; i < members.size(); i++) {
+                Object member = members.get(i);
+                long memberSize = member instanceof TwitUserGroup ? size((TwitUserGroup) member) : 1;
+                if (memberSize > SPLIT_SIZE) {
+                    if (i > batchStart) {
+                        parts.add(new BatchTask<>(members.subList(batchStart, i), visitor));
+                    }
+                    parts.add(new GroupTask<>((TwitUserGroup) member, visitor));
+                    batchStart = i + 1;
+                    batchSize = 0;
+                } else if ((batchSize += memberSize) >= SPLIT_SIZE) {
+                    parts.add(new BatchTask<>(members.subList(batchStart, i + 1), visitor));
+                    batchStart = i + 1;
+                    batchSize = 0;
+                }
+            }
+            if (batchStart < members.size()) {
+                parts.add(new BatchTask<>(members.subList(batchStart, members.size()), visitor));
+            }
+            for (int i = 1; i < parts.size(); i++) {
+                parts.get(i).fork();
+            }
+            R result = visitor.visitGroup(group);
+            if (!parts.isEmpty()) {
+                result = visitor.combine(result, parts.get(0).invoke()); // the first part runs on this thread
+            }
+            for (int i = 1; i < parts.size(); i++) {
+                result = visitor.combine(result, parts.get(i).join());
+            }
+            return result;
+        }
+    }
+
+    // reduce a run of adjacent small members of one group
+    private static class BatchTask<R> extends RecursiveTask<R> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<Object> members;
+        private final transient TreeVisitor<R> visitor;
+
+        BatchTask(List<Object> members, TreeVisitor<R> visitor) {
+            this.members = members;
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected R compute() {
+            R result = visit(members.get(0), visitor);
+            for (int i = 1; i < members.size(); i++) {
+                result = visitor.combine(result, visit(members.get(i), visitor));
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// treeStatistics class holds the TreeVisitors behind the directory statistics
+class TreeStatistics {
+    private TreeStatistics() {
+    }
+
+    // user with the most recent update, the first one in tree order on ties
+    static final TreeVisitor<LastUpdate> LAST_UPDATE = new TreeVisitor<LastUpdate>() {
+        @Override
+        public LastUpdate visitUser(TwitUser user) {
+            return new LastUpdate(user, user.getLastUpdateTime());
+        }
+
+        @Override
+        public LastUpdate visitGroup(TwitUserGroup group) {
+            return LastUpdate.NONE;
+        }
+
+        @Override
+        public LastUpdate combine(LastUpdate left, LastUpdate right) {
+            return right.user != null && (left.user == null || right.time > left.time) ? right : left;
+        }
+    };
+
+    // users, groups and news feed tweets counted from the users themselves rather than the group rollups;
+    // feeds are counted as they will be once pending deliveries land, like the rollups, so the two match
+    // unless timeline retention dropped entries
+    static final TreeVisitor<Totals> TOTALS = new TreeVisitor<Totals>() {
+        @Override
+        public Totals visitUser(TwitUser user) {
+            long[] feed = user.getSettledNewsFeedIds();
+            TweetStore store = TweetStore.getInstance();
+            long positive = 0;
+            long negative = 0;
+            for (long tweetId : feed) {
+                Tweet tweet = store.get(tweetId);
+                positive += tweet.isPositive() ? 1 : 0;
+                negative += tweet.isNegative() ? 1 : 0;
+            }
+            return new Totals(1, 0, feed.length, positive, negative);
+        }
+
+        @Override
+        public Totals visitGroup(TwitUserGroup group) {
+            return new Totals(0, 1, 0, 0, 0);
+        }
+
+        @Override
+        public Totals combine(Totals left, Totals right) {
+            return new Totals(left.users + right.users, left.groups + right.groups, left.tweets + right.tweets,
+                    left.positiveTweets + right.positiveTweets, left.negativeTweets + right.negativeTweets);
+        }
+    };
+
+    // every user and group, parents before children
+    static final TreeVisitor<List<Object>> ENTITIES = new TreeVisitor<List<Object>>() {
+        @Override
+        public List<Object> visitUser(TwitUser user) {
+            return Collections.<Object>singletonList(user);
+        }
+
+        @Override
+        public List<Object> visitGroup(TwitUserGroup group) {
+            return Collections.<Object>singletonList(group);
+        }
+
+        @Override
+        public List<Object> combine(List<Object> left, List<Object> right) {
+            List<Object> combined = left instanceof ArrayList ? left : new ArrayList<>(left); // reuse the left list
+            combined.addAll(right);
+            return combined;
+        }
+    };
+
+    // a user and the time of its last update
+    static final class LastUpdate {
+        static final LastUpdate NONE = new LastUpdate(null, 0);
+
+        final TwitUser user;
+        final long time;
+
+        LastUpdate(TwitUser user, long time) {
+            this.user = user;
+            this.time = time;
+        }
+    }
+
+    // counts for a part of the tree
+    static final class Totals {
+        final long users;
+        final long groups;
+        final long tweets;
+        final long positiveTweets;
+        final long negativeTweets;
+
+        Totals(long users, long groups, long tweets, long positiveTweets, long negativeTweets) {
+            this.users = users;
+            this.groups = groups;
+            this.tweets = tweets;
+            this.positiveTweets = positiveTweets;
+            this.negativeTweets = negativeTweets;
+        }
+
+        // check if the group rollups hold the same counts
+        boolean matches(TwitUserGroup group) {
+            return users == group.totalUsers.sum() && groups == group.totalGroups.sum()
+                    && tweets == group.totalTweets.sum() && positiveTweets == group.totalPositiveTweets.sum()
+                    && negativeTweets == group.totalNegativeTweets.sum();
+        }
+
+        @Override
+        public String toString() {
+            return "users=" + users + " groups=" + groups + " tweets=" + tweets
+                    + " positive=" + positiveTweets + " negative=" + negativeTweets;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+// treeVisitor reduces the user/group tree to one result: every user and group is visited once and the results
+// are combined in tree order (a group before its members, members in order), so combine only has to be
+// associative, not commutative. visits may run on several threads at once.
+interface TreeVisitor<R> {
+    // result for one user
+    R visitUser(TwitUser user);
+
+    // result for a group itself, not counting its members
+    R visitGroup(TwitUserGroup group);
+
+    // result for two adjacent parts of the tree, left before right
+    R combine(R left, R right);
+}
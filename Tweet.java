@@ -0,0 +1,67 @@
+// tweet class is an immutable tweet record, stored once in the TweetStore and referenced by ID everywhere else
+final class Tweet {
+    final long id; // monotonically increasing tweet ID, also the posting order
+    final TwitUser author; // user who posted the tweet
+    final String text; // tweet content
+    final long postedAt; // when the tweet was posted
+    final int sentiment; // lexicon score given when the tweet was posted
+    final boolean pushed; // whether the tweet was copied into follower inboxes
+    final TwitUserGroup audience; // group whose users got the tweet instead of the followers, or null
+
+    // constructor for Tweet class
+    Tweet(long id, TwitUser author, String text, long postedAt, int sentiment, boolean pushed,
+          TwitUserGroup audience) {
+        this.id = id;
+        this.author = author;
+        this.text = text;
+        this.postedAt = postedAt;
+        this.sentiment = sentiment;
+        this.pushed = pushed;
+        this.audience = audience;
+    }
+
+    // get tweet id
+    public long getId() {
+        return id;
+    }
+
+    // get the user who posted the tweet
+    public TwitUser getAuthor() {
+        return author;
+    }
+
+    // get tweet content
+    public String getText() {
+        return text;
+    }
+
+    // get when the tweet was posted
+    public long getPostedAt() {
+        return postedAt;
+    }
+
+    // get the sentiment score of the tweet
+    public int getSentiment() {
+        return sentiment;
+    }
+
+    // get the group the tweet was posted to, or null if it went to the author's followers
+    public TwitUserGroup getAudience() {
+        return audience;
+    }
+
+    // check if the tweet scored above zero
+    public boolean isPositive() {
+        return sentiment > 0;
+    }
+
+    // check if the tweet scored below zero
+    public boolean isNegative() {
+        return sentiment < 0;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,399 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+// tweetIdList class is a growable, ascending list of tweet IDs backed by a primitive array;
+// all access is synchronized on the list and readers work on snapshots
+//
+// the oldest IDs can be frozen into a cold segment of varint-encoded gaps, usually one to three bytes per ID
+// instead of eight; cold IDs stay readable, but reads that reach back into them decode the whole segment
+class TweetIdList {
+    private final LongAdder residentBytes; // where array sizes are counted, null if they are not
+    private long[] ids; // hot tweet IDs in ascending order, all greater than the cold ones
+    private int size; // number of hot IDs in use
+    private byte[] cold; // cold IDs as gaps from the previous ID, null when there are none
+    private int coldLength; // bytes of cold in use
+    private int coldSize; // number of cold IDs
+    private long coldLast; // last cold ID, 0 when there are none
+    private long countedBytes; // bytes this list has added to residentBytes
+
+    // constructor for TweetIdList class
+    TweetIdList() {
+        this(null);
+    }
+
+    // constructor for TweetIdList class that counts its array bytes in the given adder
+    TweetIdList(LongAdder residentBytes) {
+        this.residentBytes = residentBytes;
+        this.ids = new long[4];
+        account();
+    }
+
+    // get number of IDs
+    public synchronized int size() {
+        return coldSize + size;
+    }
+
+    // get number of IDs that are not frozen
+    public synchronized int hotSize() {
+        return size;
+    }
+
+    // get the ID at an index
+    public synchronized long get(int index) {
+        if (index >= coldSize + size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (coldSize + size));
+        }
+        return index < coldSize ? decodeCold()[index] : ids[index - coldSize];
+    }
+
+    // append an ID, keeping the list ascending
+    public synchronized void add(long id) {
+        if (id < coldLast) {
+            thaw(); // a late arrival among frozen IDs, rare
+        }
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size + (size >> 1)); // grow by half
+            account();
+        }
+        int index = size;
+        while (index > 0 && ids[index - 1] > id) {
+            index--; // late arrivals are rare and land near the end
+        }
+        System.arraycopy(ids, index, ids, index + 1, size - index);
+        ids[index] = id;
+        size++;
+    }
+
+    // append ascending IDs, keeping the list ascending
+    public synchronized void addAll(long[] added) {
+        if (added.length == 0) {
+            return;
+        }
+        if (added[0] < coldLast) {
+            thaw();
+        }
+        if (size > 0 && ids[size - 1] > added[0]) {
+            for (long id : added) {
+                add(id); // interleaves with existing IDs
+            }
+            return;
+        }
+        if (size + added.length > ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(size + added.length, size + (size >> 1)));
+            account();
+        }
+        System.arraycopy(added, 0, ids, size, added.length);
+        size += added.length;
+    }
+
+    // find the first index with an ID greater than the given one
+    public synchronized int indexAfter(long id) {
+        if (id >= coldLast) {
+            return coldSize + indexAfter(ids, size, id);
+        }
+        // every hot ID is greater, count the cold ones without decoding into an array
+        int count = 0;
+        long previous = 0;
+        for (int position = 0; position < coldLength; count++) {
+            long gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = cold[position++];
+                gap |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += gap;
+            if (previous > id) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    // copy the IDs greater than the given one
+    public synchronized long[] snapshotAfter(long id) {
+        return snapshotAfter(id, Integer.MAX_VALUE);
+    }
+
+    // copy at most max IDs greater than the given one
+    public synchronized long[] snapshotAfter(long id, int max) {
+        if (id >= coldLast) {
+            int from = indexAfter(ids, size, id);
+            return Arrays.copyOfRange(ids, from, from + Math.min(max, size - from));
+        }
+        long[] all = decodeAll();
+        int from = indexAfter(all, all.length, id);
+        return Arrays.copyOfRange(all, from, from + Math.min(max, all.length - from));
+    }
+
+    // copy the last max IDs greater than after and less than before
+    public synchronized long[] snapshotBetween(long after, long before, int max) {
+        int to = indexAfter(ids, size, before - 1);
+        if (after >= coldLast || to >= max) {
+            int from = Math.min(indexAfter(ids, size, after), to);
+            return Arrays.copyOfRange(ids, Math.max(from, to - max), to);
+        }
+        long[] all = decodeAll();
+        int from = indexAfter(all, all.length, after);
+        to = Math.max(from, indexAfter(all, all.length, before - 1));
+        return Arrays.copyOfRange(all, Math.max(from, to - max), to);
+    }
+
+    // get the last ID, or 0 if the list is empty
+    public synchronized long last() {
+        return size == 0 ? coldLast : ids[size - 1];
+    }
+
+    // move the oldest count hot IDs into the cold segment, returns the number moved
+    public synchronized int freeze(int count) {
+        count = Math.min(count, size);
+        if (count <= 0) {
+            return 0;
+        }
+        appendCold(ids, 0, count);
+        System.arraycopy(ids, count, ids, 0, size - count);
+        size -= count;
+        shrink();
+        return count;
+    }
+
+    // move the hot IDs up to the given one into the cold segment, returns the number moved
+    public synchronized int freezeUpTo(long id) {
+        return freeze(indexAfter(ids, size, id));
+    }
+
+    // remove the IDs up to the given one, returns the number removed
+    public synchronized int dropUpTo(long id) {
+        int dropped = 0;
+        if (coldSize > 0) {
+            long[] kept = id < coldLast ? decodeCold() : new long[0];
+            int from = indexAfter(kept, kept.length, id);
+            dropped = coldSize - (kept.length - from);
+            cold = null;
+            coldLength = 0;
+            coldSize = 0;
+            coldLast = 0;
+            appendCold(kept, from, kept.length); // re-encode the cold IDs that stay
+        }
+        int from = indexAfter(ids, size, id);
+        System.arraycopy(ids, from, ids, 0, size - from);
+        size -= from;
+        shrink();
+        return dropped + from;
+    }
+
+    // remove the given ascending IDs where present
+    public synchronized void removeAll(long[] removed) {
+        if (removed.length == 0) {
+            return;
+        }
+        if (removed[0] < coldLast) {
+            thaw();
+        }
+        int kept = 0;
+        int next = 0;
+        for (int i = 0; i < size; i++) {
+            while (next < removed.length && removed[next] < ids[i]) {
+                next++;
+            }
+            if (next == removed.length || removed[next] != ids[i]) {
+                ids[kept++] = ids[i];
+            }
+        }
+        size = kept;
+        shrink();
+    }
+
+    // encode ascending IDs greater than coldLast onto the end of the cold segment
+    private void appendCold(long[] values, int from, int to) {
+        if (from == to) {
+            account();
+            return;
+        }
+        int needed = 0;
+        long previous = coldLast;
+        for (int i = from; i < to; i++) {
+            for (long gap = values[i] - previous; gap >= 0x80; gap >>>= 7) {
+                needed++;
+            }
+            needed++;
+            previous = values[i];
+        }
+        if (cold == null || coldLength + needed > cold.length) {
+            int capacity = Math.max(coldLength + needed, coldLength + (coldLength >> 1)); // grow by half
+            cold = cold == null ? new byte[capacity] : Arrays.copyOf(cold, capacity);
+        }
+        previous = coldLast;
+        for (int i = from; i < to; i++) {
+            long gap = values[i] - previous;
+            while (gap >= 0x80) {
+                cold[coldLength++] = (byte) (gap | 0x80);
+                gap >>>= 7;
+            }
+            cold[coldLength++] = (byte) gap;
+            previous = values[i];
+        }
+        coldSize += to - from;
+        coldLast = previous;
+        account();
+    }
+
+    // decode the cold segment
+    private long[] decodeCold() {
+        long[] values = new long[coldSize];
+        long previous = 0;
+        int position = 0;
+        for (int i = 0; i < coldSize; i++) {
+            long gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = cold[position++];
+                gap |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += gap;
+            values[i] = previous;
+        }
+        return values;
+    }
+
+    // decode the cold segment followed by the hot IDs
+    private long[] decodeAll() {
+        long[] all = Arrays.copyOf(decodeCold(), coldSize + size);
+        System.arraycopy(ids, 0, all, coldSize, size);
+        return all;
+    }
+
+    // move every cold ID back into the hot array
+    private void thaw() {
+        long[] all = decodeAll();
+        ids = Arrays.copyOf(all, Math.max(4, all.length + (all.length >> 1)));
+        size = all.length;
+        cold = null;
+        coldLength = 0;
+        coldSize = 0;
+        coldLast = 0;
+        account();
+    }
+
+    // give back most of a hot array that is now mostly empty
+    private void shrink() {
+        if (ids.length > 16 && size < ids.length / 4) {
+            ids = Arrays.copyOf(ids, Math.max(4, size * 2));
+        }
+        account();
+    }
+
+    // report a change in array sizes
+    private void account() {
+        if (residentBytes != null) {
+            long bytes = 8L * ids.length + (cold == null ? 0 : cold.length);
+            residentBytes.add(bytes - countedBytes);
+            countedBytes = bytes;
+        }
+    }
+
+    // find the first index below size with an ID greater than the given one
+    private static int indexAfter(long[] values, int size, long id) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] <= id) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // k-way merge of ascending ID arrays, dropping duplicate IDs
+    static long[] merge(List<long[]> sources) {
+        int count = sources.size();
+        int[] positions = new int[count];
+        int total = 0;
+        for (long[] source : sources) {
+            total += source.length;
+        }
+        long[] merged = new long[total];
+        int size = 0;
+        if (count <= 2) {
+            // the common case of own tweets plus the inbox needs no heap
+            while (true) {
+                int next = -1;
+                for (int i = 0; i < count; i++) {
+                    long[] source = sources.get(i);
+                    if (positions[i] < source.length
+                            && (next < 0 || source[positions[i]] < sources.get(next)[positions[next]])) {
+                        next = i;
+                    }
+                }
+                if (next < 0) {
+                    break;
+                }
+                size = append(merged, size, sources.get(next)[positions[next]++]);
+            }
+            return Arrays.copyOf(merged, size);
+        }
+        // binary heap of source indexes ordered by their current ID
+        int[] heap = new int[count];
+        int heapSize = 0;
+        for (int i = 0; i < count; i++) {
+            if (positions[i] < sources.get(i).length) {
+                heap[heapSize++] = i;
+            }
+        }
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(heap, heapSize, i, sources, positions);
+        }
+        while (heapSize > 0) {
+            int top = heap[0];
+            long[] source = sources.get(top);
+            size = append(merged, size, source[positions[top]++]);
+            if (positions[top] == source.length) {
+                heap[0] = heap[--heapSize]; // source exhausted
+            }
+            siftDown(heap, heapSize, 0, sources, positions);
+        }
+        return Arrays.copyOf(merged, size);
+    }
+
+    // append an ID unless it repeats the previous one
+    private static int append(long[] merged, int size, long id) {
+        if (size == 0 || merged[size - 1] != id) {
+            merged[size++] = id;
+        }
+        return size;
+    }
+
+    // restore the heap order below index i
+    private static void siftDown(int[] heap, int heapSize, int i, List<long[]> sources, int[] positions) {
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < heapSize && head(heap[left], sources, positions) < head(heap[smallest], sources, positions)) {
+                smallest = left;
+            }
+            if (right < heapSize && head(heap[right], sources, positions) < head(heap[smallest], sources, positions)) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            int swap = heap[i];
+            heap[i] = heap[smallest];
+            heap[smallest] = swap;
+            i = smallest;
+        }
+    }
+
+    // get the current ID of a source
+    private static long head(int source, List<long[]> sources, int[] positions) {
+        return sources.get(source)[positions[source]];
+    }
+}
@@ -0,0 +1,116 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// tweetStore class holds every tweet once, indexed by its ID; safe for concurrent posting and reading
+class TweetStore {
+    private static final int CHUNK_BITS = 14; // 16384 tweets per chunk
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final AtomicLong lastId; // ID of the most recently allocated tweet
+    private final Object clock = new Object(); // allocates IDs and post times together
+    private long lastPostedAt; // post time of the most recently allocated tweet, guarded by clock
+    private volatile AtomicReferenceArray<AtomicReferenceArray<Tweet>> chunks; // tweets by ID in fixed-size chunks
+
+    // constructor for TweetStore class
+    private TweetStore() {
+        this.lastId = new AtomicLong();
+        this.chunks = new AtomicReferenceArray<>(16);
+    }
+
+    // holder class so the singleton is created lazily and published safely
+    private static class Holder {
+        static final TweetStore INSTANCE = new TweetStore();
+    }
+
+    // singleton instance getter
+    public static TweetStore getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    // store a new tweet under the next ID; the post time is at least the requested time and never earlier than
+    // the previous tweet's, so tweets are in the same order by ID and by time
+    public Tweet create(TwitUser author, String text, long postedAt, int sentiment, boolean pushed,
+                        TwitUserGroup audience) {
+        long id;
+        synchronized (clock) {
+            id = lastId.incrementAndGet();
+            postedAt = lastPostedAt = Math.max(postedAt, lastPostedAt);
+        }
+        Tweet tweet = new Tweet(id, author, text, postedAt, sentiment, pushed, audience);
+        chunkFor(id).set((int) (id & CHUNK_MASK), tweet);
+        return tweet;
+    }
+
+    // put back a tweet restored from storage under its original ID
+    public Tweet restore(long id, TwitUser author, String text, long postedAt, int sentiment, boolean pushed,
+                         TwitUserGroup audience) {
+        Tweet tweet = new Tweet(id, author, text, postedAt, sentiment, pushed, audience);
+        chunkFor(id).set((int) (id & CHUNK_MASK), tweet);
+        synchronized (clock) {
+            lastId.accumulateAndGet(id, Math::max);
+            lastPostedAt = Math.max(postedAt, lastPostedAt);
+        }
+        return tweet;
+    }
+
+    // get a tweet by ID, or null if there is none yet
+    public Tweet get(long id) {
+        if (id <= 0 || id > lastId.get()) {
+            return null;
+        }
+        AtomicReferenceArray<AtomicReferenceArray<Tweet>> table = chunks;
+        int index = (int) (id >>> CHUNK_BITS);
+        AtomicReferenceArray<Tweet> chunk = index < table.length() ? table.get(index) : null;
+        return chunk == null ? null : chunk.get((int) (id & CHUNK_MASK));
+    }
+
+    // find the first tweet ID posted at or after the given time, or the next ID to allocate if there is none;
+    // binary search works because post times never decrease with the ID
+    public long firstIdPostedAtOrAfter(long time) {
+        long low = 1;
+        long high = lastId.get() + 1;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            Tweet tweet = get(mid);
+            if (tweet != null && tweet.postedAt < time) { // a tweet still being stored is newer than any stored one
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // get the ID of the most recently allocated tweet, 0 if there are none
+    public long getLastId() {
+        return lastId.get();
+    }
+
+    // find or allocate the chunk holding an ID
+    private AtomicReferenceArray<Tweet> chunkFor(long id) {
+        int index = (int) (id >>> CHUNK_BITS);
+        AtomicReferenceArray<AtomicReferenceArray<Tweet>> table = chunks;
+        AtomicReferenceArray<Tweet> chunk = index < table.length() ? table.get(index) : null;
+        if (chunk != null) {
+            return chunk;
+        }
+        synchronized (this) {
+            table = chunks;
+            if (index >= table.length()) {
+                AtomicReferenceArray<AtomicReferenceArray<Tweet>> grown =
+                        new AtomicReferenceArray<>(Math.max(table.length() * 2, index + 1));
+                for (int i = 0; i < table.length(); i++) {
+                    grown.set(i, table.get(i)); // only the chunk table is copied
+                }
+                chunks = table = grown;
+            }
+            chunk = table.get(index);
+            if (chunk == null) {
+                chunk = new AtomicReferenceArray<>(CHUNK_SIZE);
+                table.set(index, chunk);
+            }
+            return chunk;
+        }
+    }
+}
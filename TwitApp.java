@@ -5,170 +5,131 @@ import javax.swing.tree.TreePath;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-// twitUser class represents a user in the TwitApp
-class TwitUser {
-    String id; // user's ID
-    List<TwitUser> followers; // list of followers
-    List<TwitUser> followings; // list of followings
-    List<String> newsFeed; // list of tweets in news feed
-    DefaultListModel<String> newsFeedModel; // model for the news feed list
-    long creationTime; // when the user was created
-    long lastUpdateTime; // when the user was last updated
-
-    // constructor for TwitUser class
-    public TwitUser(String id) {
-        this.id = id; // set the user's ID
-        this.followers = new ArrayList<>(); // initialize followers list
-        this.followings = new ArrayList<>(); // initialize followings list
-        this.newsFeed = new ArrayList<>(); // initialize news feed list
-        this.newsFeedModel = new DefaultListModel<>(); // initialize news feed model
-        this.creationTime = System.currentTimeMillis(); // set creation time to current time
-        this.lastUpdateTime = this.creationTime; // set last update time to creation time
-    }
-
-    // get user id
-    public String getId() {
-        return id;
-    }
+// twitApp class is the Swing front end of the TwitApp: the admin control panel and user views over the
+// directory held by the TwitEngine, whose change listeners keep the tree up to date
+public class TwitApp {
+    private static final int SEARCH_RESULTS = 20; // tweets shown by Search Tweets
 
-    // get followers of the user
-    public List<TwitUser> getFollowers() {
-        return followers;
-    }
+    private final TwitEngine engine; // headless core holding the directory
+    private final TwitUserGroup rootGroup; // root group
+    private final DefaultMutableTreeNode rootNode; // root node for the tree
+    private final DefaultTreeModel treeModel; // model for the tree, only changed on the event dispatch thread
+    private final Map<String, DefaultMutableTreeNode> nodeIndex; // registry of tree nodes by ID
 
-    // get followings of the user
-    public List<TwitUser> getFollowings() {
-        return followings;
+    // constructor for TwitApp class
+    private TwitApp(TwitEngine engine) {
+        this.engine = engine;
+        this.rootGroup = engine.getRootGroup(); // share the engine's root group
+        this.rootNode = new DefaultMutableTreeNode(rootGroup); // initialize root node
+        this.treeModel = new DefaultTreeModel(rootNode); // initialize tree model
+        this.nodeIndex = new ConcurrentHashMap<>(); // initialize node registry
+        nodeIndex.put(rootGroup.getId(), rootNode); // register the root node
+        TwitListener treeUpdater = new TwitListener() {
+            @Override
+            public void entitiesAdded(List<Object> entities) {
+                runOnEventThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        insertNodes(entities);
+                    }
+                });
+            }
+        };
+        runOnEventThread(new Runnable() {
+            @Override
+            public void run() {
+                // subscribe and copy the existing directory in one step, later additions queue behind it
+                engine.addListener(treeUpdater);
+                insertNodes(engine.collectEntities(rootGroup));
+            }
+        });
     }
 
-    // get news feed of the user
-    public List<String> getNewsFeed() {
-        return newsFeed;
+    // holder class so the singleton is created lazily and published safely
+    private static class Holder {
+        static final TwitApp INSTANCE = new TwitApp(TwitEngine.getInstance());
     }
 
-    // add a follower to the user's list
-    public void addFollower(TwitUser follower) {
-        followers.add(follower);
+    // singleton instance getter
+    public static TwitApp getInstance() {
+        return Holder.INSTANCE;
     }
 
-    // add a following user to the user's list
-    public void addFollowing(TwitUser following) {
-        followings.add(following);
+    // get the root group
+    public TwitUserGroup getRootGroup() {
+        return rootGroup;
     }
 
-    // post a tweet to the user's news feed and notify followers
-    public void postTweet(String tweet) {
-        long currentTime = System.currentTimeMillis(); // get current time
-        newsFeed.add(tweet); // add tweet to news feed
-        newsFeedModel.addElement(tweet); // add tweet to news feed model
-        this.lastUpdateTime = currentTime; // update last update time
-        for (TwitUser follower : followers) {
-            follower.getNewsFeed().add(tweet); // add tweet to follower's news feed
-            follower.newsFeedModel.addElement(tweet); // add tweet to follower's news feed model
-            follower.lastUpdateTime = currentTime; // update follower's last update time
+    // add tree nodes for new users and groups, on the event dispatch thread; nodes under new groups are
+    // built detached and each group already in the tree gets one insert event, so the tree keeps its
+    // expansion and only lays out the change
+    private void insertNodes(List<Object> entities) {
+        Map<DefaultMutableTreeNode, List<Integer>> inserted = new LinkedHashMap<>();
+        Set<DefaultMutableTreeNode> detached = new HashSet<>();
+        for (Object entity : entities) {
+            String id = entity instanceof TwitUser ? ((TwitUser) entity).getId() : ((TwitUserGroup) entity).getId();
+            TwitUserGroup parent = entity instanceof TwitUser ? ((TwitUser) entity).getParent()
+                    : ((TwitUserGroup) entity).getParent();
+            DefaultMutableTreeNode parentNode = findNode(parent);
+            if (parentNode == null || findNode(entity) != null) {
+                continue; // not in the tree's part of the directory, or already shown
+            }
+            DefaultMutableTreeNode node = new DefaultMutableTreeNode(entity);
+            if (detached.contains(parentNode)) {
+                parentNode.add(node); // not on screen yet, so no events are needed
+            } else {
+                inserted.computeIfAbsent(parentNode, k -> new ArrayList<>()).add(parentNode.getChildCount());
+                parentNode.add(node);
+            }
+            detached.add(node);
+            nodeIndex.put(id, node);
         }
-    }
-
-    @Override
-    public String toString() {
-        return id;
-    }
-}
-
-// twitUserGroup class represents a group of users
-class TwitUserGroup {
-    String id; // group's ID
-    List<Object> members; // list of members in the group
-    long creationTime; // when the group was created
-
-    // constructor for TwitUserGroup class
-    public TwitUserGroup(String id) {
-        this.id = id; // set the group's ID
-        this.members = new ArrayList<>(); // initialize members list
-        this.creationTime = System.currentTimeMillis(); // set creation time to current time
-    }
-
-    // get group id
-    public String getId() {
-        return id;
-    }
-
-    // get members of the group
-    public List<Object> getMembers() {
-        return members;
-    }
-
-    // add a member to the group
-    public void addMember(Object member) {
-        members.add(member);
-    }
-
-    @Override
-    public String toString() {
-        return id;
-    }
-}
-
-// twitApp class is the main class for the TwitApp
-public class TwitApp {
-    private static TwitApp instance; // singleton instance
-    private TwitUserGroup rootGroup; // root group
-    private DefaultMutableTreeNode rootNode; // root node for the tree
-    private DefaultTreeModel treeModel; // model for the tree
-
-    // constructor for TwitApp class
-    private TwitApp() {
-        this.rootGroup = new TwitUserGroup("Root"); // initialize root group
-        this.rootNode = new DefaultMutableTreeNode(rootGroup); // initialize root node
-        this.treeModel = new DefaultTreeModel(rootNode); // initialize tree model
-    }
-
-    // singleton instance getter
-    public static TwitApp getInstance() {
-        if (instance == null) {
-            instance = new TwitApp(); // create instance if it doesn't exist
+        for (Map.Entry<DefaultMutableTreeNode, List<Integer>> entry : inserted.entrySet()) {
+            int[] indices = new int[entry.getValue().size()];
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = entry.getValue().get(i);
+            }
+            treeModel.nodesWereInserted(entry.getKey(), indices);
         }
-        return instance;
     }
 
-    // add a user to a group and update the tree view
-    public void addUser(TwitUser user, TwitUserGroup group) {
-        group.addMember(user); // add user to the group
-        DefaultMutableTreeNode groupNode = findNode(rootNode, group); // find the group's node
-        if (groupNode != null) {
-            groupNode.add(new DefaultMutableTreeNode(user)); // add user node to the group node
-            treeModel.reload(); // reload the tree model
-        }
+    // get the tree node of a user or group whose node is already in the tree
+    DefaultMutableTreeNode findNodeById(String id) {
+        return nodeIndex.get(id);
     }
 
-    // add a group to a parent group and update the tree view
-    public void addGroup(TwitUserGroup group, TwitUserGroup parentGroup) {
-        parentGroup.addMember(group); // add group to the parent group
-        DefaultMutableTreeNode parentNode = findNode(rootNode, parentGroup); // find the parent group's node
-        if (parentNode != null) {
-            parentNode.add(new DefaultMutableTreeNode(group)); // add group node to the parent node
-            treeModel.reload(); // reload the tree model
+    // run a task on the event dispatch thread, right away if already on it
+    private static void runOnEventThread(Runnable task) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            task.run();
+        } else {
+            SwingUtilities.invokeLater(task);
         }
     }
 
-    // find a node in the tree by user/group object
-    private DefaultMutableTreeNode findNode(DefaultMutableTreeNode root, Object target) {
-        if (root.getUserObject().equals(target)) {
-            return root; // return the node if it matches the target
+    // find the tree node of a registered user/group object
+    private DefaultMutableTreeNode findNode(Object target) {
+        if (target == null) {
+            return null;
         }
-        for (int i = 0; i < root.getChildCount(); i++) {
-            DefaultMutableTreeNode child = (DefaultMutableTreeNode) root.getChildAt(i);
-            DefaultMutableTreeNode node = findNode(child, target);
-            if (node != null) {
-                return node; // return the found node
-            }
+        String id = target instanceof TwitUser ? ((TwitUser) target).getId() : ((TwitUserGroup) target).getId();
+        DefaultMutableTreeNode node = nodeIndex.get(id);
+        if (node != null && node.getUserObject() == target) {
+            return node; // return the registered node
         }
-        return null; // return null if not found
+        return null; // return null if not registered
     }
 
     // display the admin control panel
@@ -185,9 +146,13 @@ public class TwitApp {
         JButton showTotalGroupsButton = new JButton("Total Groups");
         JButton showTotalTweetsButton = new JButton("Total Tweets");
         JButton showPositiveTweetsButton = new JButton("Positive Tweets");
+        JButton showNegativeTweetsButton = new JButton("Negative Tweets");
         JButton openUserViewButton = new JButton("Open User View");
         JButton validateIDsButton = new JButton("Validate IDs");
         JButton lastUpdateUserButton = new JButton("Last Update User");
+        JButton fanoutStatusButton = new JButton("Fan-out Status");
+        JButton importButton = new JButton("Import...");
+        JButton searchButton = new JButton("Search Tweets");
 
         JTree userTree = new JTree(treeModel);
         JScrollPane treeScrollPane = new JScrollPane(userTree);
@@ -228,6 +193,9 @@ public class TwitApp {
         constraints.gridx++;
         panel.add(showPositiveTweetsButton, constraints);
 
+        constraints.gridx++;
+        panel.add(fanoutStatusButton, constraints);
+
         constraints.gridx = 0;
         constraints.gridy++;
         constraints.gridwidth = 3;
@@ -251,15 +219,27 @@ public class TwitApp {
         constraints.gridx++;
         panel.add(lastUpdateUserButton, constraints);
 
+        constraints.gridx = 0;
+        constraints.gridy++;
+        panel.add(importButton, constraints);
+
+        constraints.gridx++;
+        panel.add(showNegativeTweetsButton, constraints);
+
+        constraints.gridx++;
+        panel.add(searchButton, constraints);
+
         // add action listeners for buttons
         createUserButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
                 String userId = userIdTextField.getText().trim();
                 if (!userId.isEmpty()) {
-                    TwitUser newUser = new TwitUser(userId);
-                    addUser(newUser, rootGroup);
-                    userIdTextField.setText("");
+                    if (engine.createUser(userId, rootGroup) != null) {
+                        userIdTextField.setText("");
+                    } else {
+                        JOptionPane.showMessageDialog(frame, "ID \"" + userId + "\" is already taken.");
+                    }
                 } else {
                     JOptionPane.showMessageDialog(frame, "User ID cannot be empty.");
                 }
@@ -271,9 +251,11 @@ public class TwitApp {
             public void actionPerformed(ActionEvent e) {
                 String groupId = groupIdTextField.getText().trim();
                 if (!groupId.isEmpty()) {
-                    TwitUserGroup newGroup = new TwitUserGroup(groupId);
-                    addGroup(newGroup, rootGroup);
-                    groupIdTextField.setText("");
+                    if (engine.createGroup(groupId, rootGroup) != null) {
+                        groupIdTextField.setText("");
+                    } else {
+                        JOptionPane.showMessageDialog(frame, "ID \"" + groupId + "\" is already taken.");
+                    }
                 } else {
                     JOptionPane.showMessageDialog(frame, "Group ID cannot be empty.");
                 }
@@ -283,7 +265,7 @@ public class TwitApp {
         showTotalUsersButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                int totalUsers = countTotalUsers(rootGroup);
+                int totalUsers = engine.countTotalUsers(rootGroup);
                 JOptionPane.showMessageDialog(frame, "Total Users: " + totalUsers);
             }
         });
@@ -291,7 +273,7 @@ public class TwitApp {
         showTotalGroupsButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                int totalGroups = countTotalGroups(rootGroup);
+                int totalGroups = engine.countTotalGroups(rootGroup);
                 JOptionPane.showMessageDialog(frame, "Total Groups: " + totalGroups);
             }
         });
@@ -299,7 +281,7 @@ public class TwitApp {
         showTotalTweetsButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                int totalTweets = countTotalTweets(rootGroup);
+                int totalTweets = engine.countTotalTweets(rootGroup);
                 JOptionPane.showMessageDialog(frame, "Total Tweets: " + totalTweets);
             }
         });
@@ -307,8 +289,18 @@ public class TwitApp {
         showPositiveTweetsButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                int totalPositiveTweets = countTotalPositiveTweets(rootGroup);
-                JOptionPane.showMessageDialog(frame, "Total Positive Tweets: " + totalPositiveTweets);
+                int totalPositiveTweets = engine.countTotalPositiveTweets(rootGroup);
+                JOptionPane.showMessageDialog(frame, String.format("Total Positive Tweets: %d (%.1f%%)",
+                        totalPositiveTweets, rootGroup.getPositivePercentage()));
+            }
+        });
+
+        showNegativeTweetsButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                int totalNegativeTweets = engine.countTotalNegativeTweets(rootGroup);
+                JOptionPane.showMessageDialog(frame, String.format("Total Negative Tweets: %d (%.1f%%)",
+                        totalNegativeTweets, rootGroup.getNegativePercentage()));
             }
         });
 
@@ -332,7 +324,7 @@ public class TwitApp {
         validateIDsButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                boolean areIdsValid = validateIds(rootGroup);
+                boolean areIdsValid = engine.validateIds(rootGroup);
                 if (areIdsValid) {
                     JOptionPane.showMessageDialog(frame, "All IDs are unique.");
                 } else {
@@ -344,7 +336,7 @@ public class TwitApp {
         lastUpdateUserButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                String lastUpdateUserId = getLastUpdateUserId(rootGroup);
+                String lastUpdateUserId = engine.getLastUpdateUserId(rootGroup);
                 if (lastUpdateUserId != null) {
                     JOptionPane.showMessageDialog(frame, "Last Update User ID: " + lastUpdateUserId);
                 } else {
@@ -353,30 +345,133 @@ public class TwitApp {
             }
         });
 
-        frame.add(panel);
+        fanoutStatusButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                FanoutPipeline fanout = FanoutPipeline.getInstance();
+                JOptionPane.showMessageDialog(frame, String.format(
+                        "Workers: %d%nQueue Depth: %d%nIn Flight: %d%nDelivered Tweets: %d%nInbox Entries: %d%n"
+                                + "Last Delivery Lag: %.1f ms%nMax Delivery Lag: %.1f ms",
+                        fanout.getWorkerCount(), fanout.getQueueDepth(), fanout.getInFlight(),
+                        fanout.getDeliveredTweets(), fanout.getDeliveredEntries(), fanout.getLastLagMillis(),
+                        fanout.getMaxLagMillis()));
+            }
+        });
+
+        searchButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                String query = JOptionPane.showInputDialog(frame, "Words, #hashtags or @mentions (OR for either):");
+                if (query == null || query.trim().isEmpty()) {
+                    return;
+                }
+                StringBuilder message = new StringBuilder("Trending in the last hour:");
+                for (SearchIndex.HashtagCount trend : engine.getTrendingHashtags(60 * 60 * 1000, 5)) {
+                    message.append(' ').append(trend);
+                }
+                List<Tweet> tweets = engine.search(query, SEARCH_RESULTS);
+                message.append("\n\n").append(tweets.isEmpty() ? "No tweets found." : "Newest matches:");
+                for (Tweet tweet : tweets) {
+                    message.append('\n').append(tweet.getAuthor().getId()).append(": ").append(tweet.getText());
+                }
+                JOptionPane.showMessageDialog(frame, message.toString());
+            }
+        });
+
+        importButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                JFileChooser chooser = new JFileChooser();
+                if (chooser.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION) {
+                    return;
+                }
+                importButton.setEnabled(false);
+                // build the directory off the event thread, the tree is updated once at the end
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        String message;
+                        try {
+                            message = BulkImporter.importFile(engine, chooser.getSelectedFile().toPath()).getSummary();
+                        } catch (IOException ex) {
+                            message = "Import failed: " + ex.getMessage();
+                        }
+                        String summary = message;
+                        SwingUtilities.invokeLater(new Runnable() {
+                            @Override
+                            public void run() {
+                                importButton.setEnabled(true);
+                                JOptionPane.showMessageDialog(frame, summary);
+                            }
+                        });
+                    }
+                }, "twitapp-import").start();
+            }
+        });
+
+        JTabbedPane tabs = new JTabbedPane();
+        tabs.addTab("Directory", panel);
+        tabs.addTab("Metrics", createMetricsPanel(tabs));
+        frame.add(tabs);
         frame.pack();
         frame.setLocationRelativeTo(null);
         frame.setVisible(true);
     }
 
+    // create the tab showing the Metrics report, refreshed every second while the tab is shown
+    private JPanel createMetricsPanel(JTabbedPane tabs) {
+        JPanel panel = new JPanel(new BorderLayout());
+        JTextArea reportArea = new JTextArea(Metrics.report());
+        reportArea.setEditable(false);
+        reportArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        JButton resetButton = new JButton("Reset");
+        panel.add(new JScrollPane(reportArea), BorderLayout.CENTER);
+        panel.add(resetButton, BorderLayout.SOUTH);
+
+        Timer refreshTimer = new Timer(1000, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (tabs.getSelectedComponent() == panel) {
+                    reportArea.setText(Metrics.report());
+                }
+            }
+        });
+        refreshTimer.start();
+
+        resetButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                Metrics.reset();
+                reportArea.setText(Metrics.report());
+            }
+        });
+        return panel;
+    }
+
     // display the user view
     private void displayUserView(TwitUser user) {
         JFrame frame = new JFrame("User View - " + user.getId());
         frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
         frame.setLayout(new BorderLayout());
 
-        DefaultListModel<String> newsFeedModel = user.newsFeedModel;
-        JList<String> newsFeedList = new JList<>(newsFeedModel);
+        NewsFeedListModel newsFeedModel = new NewsFeedListModel(user); // follows the feed until closed
+        JList<Tweet> newsFeedList = new JList<>(newsFeedModel);
+        // a prototype row keeps the list from measuring every tweet, so only visible rows are read
+        newsFeedList.setPrototypeCellValue(new Tweet(0, user, "A typical tweet of about this length", 0, 0, false, null));
 
         JTextField tweetTextField = new JTextField();
         JButton postTweetButton = new JButton("Post Tweet");
+        JButton postToGroupButton = new JButton("Post to " + user.getParent().getId()); // everyone in the group
+        JPanel postButtons = new JPanel(new GridLayout(2, 1));
+        postButtons.add(postTweetButton);
+        postButtons.add(postToGroupButton);
 
         JLabel creationTimeLabel = new JLabel("Creation Time: " + user.creationTime);
-        JLabel lastUpdateTimeLabel = new JLabel("Last Update Time: " + user.lastUpdateTime);
+        JLabel lastUpdateTimeLabel = new JLabel("Last Update Time: " + user.getLastUpdateTime());
 
         frame.add(new JScrollPane(newsFeedList), BorderLayout.CENTER);
         frame.add(tweetTextField, BorderLayout.SOUTH);
-        frame.add(postTweetButton, BorderLayout.EAST);
+        frame.add(postButtons, BorderLayout.EAST);
         frame.add(creationTimeLabel, BorderLayout.NORTH);
         frame.add(lastUpdateTimeLabel, BorderLayout.WEST);
 
@@ -385,151 +480,56 @@ public class TwitApp {
             public void actionPerformed(ActionEvent e) {
                 String tweet = tweetTextField.getText().trim();
                 if (!tweet.isEmpty()) {
-                    user.postTweet(tweet);
+                    engine.post(user, tweet);
                     tweetTextField.setText("");
-                    lastUpdateTimeLabel.setText("Last Update Time: " + user.lastUpdateTime);
+                    lastUpdateTimeLabel.setText("Last Update Time: " + user.getLastUpdateTime());
                 }
             }
         });
 
-        frame.setSize(400, 300);
-        frame.setLocationRelativeTo(null);
-        frame.setVisible(true);
-    }
-
-    // count total users in the group
-    private int countTotalUsers(TwitUserGroup group) {
-        int count = 0;
-        for (Object member : group.getMembers()) {
-            if (member instanceof TwitUser) {
-                count++;
-            } else if (member instanceof TwitUserGroup) {
-                count += countTotalUsers((TwitUserGroup) member);
+        postToGroupButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                String tweet = tweetTextField.getText().trim();
+                if (!tweet.isEmpty()) {
+                    engine.postToGroup(user, user.getParent(), tweet);
+                    tweetTextField.setText("");
+                    lastUpdateTimeLabel.setText("Last Update Time: " + user.getLastUpdateTime());
+                }
             }
-        }
-        return count;
-    }
+        });
 
-    // count total groups in the group
-    private int countTotalGroups(TwitUserGroup group) {
-        int count = 1; // count the current group
-        for (Object member : group.getMembers()) {
-            if (member instanceof TwitUserGroup) {
-                count += countTotalGroups((TwitUserGroup) member);
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                newsFeedModel.close(); // stop following the news feed
             }
-        }
-        return count;
-    }
+        });
 
-    // count total tweets in the group
-    private int countTotalTweets(TwitUserGroup group) {
-        int count = 0;
-        for (Object member : group.getMembers()) {
-            if (member instanceof TwitUser) {
-                count += ((TwitUser) member).getNewsFeed().size();
-            } else if (member instanceof TwitUserGroup) {
-                count += countTotalTweets((TwitUserGroup) member);
-            }
-        }
-        return count;
+        frame.setSize(400, 300);
+        frame.setLocationRelativeTo(null);
+        frame.setVisible(true);
     }
 
-    // count total positive tweets in the group
-    private int countTotalPositiveTweets(TwitUserGroup group) {
-        int count = 0;
-        Set<String> positiveWords = new HashSet<>();
-        positiveWords.add("good");
-        positiveWords.add("great");
-        positiveWords.add("excellent");
-        positiveWords.add("happy");
-        positiveWords.add("positive");
-
-        for (Object member : group.getMembers()) {
-            if (member instanceof TwitUser) {
-                for (String tweet : ((TwitUser) member).getNewsFeed()) {
-                    String[] words = tweet.split("\\s+");
-                    for (String word : words) {
-                        if (positiveWords.contains(word.toLowerCase())) {
-                            count++;
-                            break;
-                        }
+    public static void main(String[] args) throws IOException {
+        if (Boolean.parseBoolean(System.getProperty("twitapp.persist", "true"))) {
+            // load the saved directory before the panel shows it, and save it again on exit
+            TwitStorage storage = TwitStorage.open(TwitEngine.getInstance(),
+                    Paths.get(System.getProperty("twitapp.dataDir", "twitapp-data")));
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        storage.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
                     }
                 }
-            } else if (member instanceof TwitUserGroup) {
-                count += countTotalPositiveTweets((TwitUserGroup) member);
-            }
-        }
-        return count;
-    }
-
-    // validate IDs for uniqueness
-    private boolean validateIds(TwitUserGroup group) {
-        Set<String> ids = new HashSet<>();
-        return collectIds(group, ids);
-    }
-
-    // collect IDs for uniqueness validation
-    private boolean collectIds(TwitUserGroup group, Set<String> ids) {
-        if (!ids.add(group.getId())) {
-            return false; // duplicate ID found
-        }
-        for (Object member : group.getMembers()) {
-            if (member instanceof TwitUser) {
-                if (!ids.add(((TwitUser) member).getId())) {
-                    return false; // duplicate ID found
-                }
-            } else if (member instanceof TwitUserGroup) {
-                if (!collectIds((TwitUserGroup) member, ids)) {
-                    return false; // duplicate ID found
-                }
-            }
-        }
-        return true;
-    }
-
-    // get the ID of the user with the most recent update
-    private String getLastUpdateUserId(TwitUserGroup group) {
-        long latestUpdateTime = 0;
-        String lastUpdateUserId = null;
-
-        for (Object member : group.getMembers()) {
-            if (member instanceof TwitUser) {
-                TwitUser user = (TwitUser) member;
-                if (user.lastUpdateTime > latestUpdateTime) {
-                    latestUpdateTime = user.lastUpdateTime;
-                    lastUpdateUserId = user.getId();
-                }
-            } else if (member instanceof TwitUserGroup) {
-                String groupLastUpdateUserId = getLastUpdateUserId((TwitUserGroup) member);
-                TwitUser groupLastUpdateUser = findUserById(rootGroup, groupLastUpdateUserId);
-                if (groupLastUpdateUser != null && groupLastUpdateUser.lastUpdateTime > latestUpdateTime) {
-                    latestUpdateTime = groupLastUpdateUser.lastUpdateTime;
-                    lastUpdateUserId = groupLastUpdateUser.getId();
-                }
-            }
+            }));
         }
-        return lastUpdateUserId;
-    }
-
-    // find a user by ID in the group
-    private TwitUser findUserById(TwitUserGroup group, String userId) {
-        for (Object member : group.getMembers()) {
-            if (member instanceof TwitUser) {
-                TwitUser user = (TwitUser) member;
-                if (user.getId().equals(userId)) {
-                    return user;
-                }
-            } else if (member instanceof TwitUserGroup) {
-                TwitUser user = findUserById((TwitUserGroup) member, userId);
-                if (user != null) {
-                    return user;
-                }
-            }
+        if (Metrics.ENABLED) {
+            Metrics.registerMBean(); // readable from JConsole as twitapp:type=Metrics
         }
-        return null;
-    }
-
-    public static void main(String[] args) {
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
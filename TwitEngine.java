@@ -0,0 +1,433 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// twitEngine class is the headless core of TwitApp: the registry of users and groups by ID and the
+// operations on them, with change listeners for front ends such as the Swing admin panel. It loads
+// no AWT or Swing classes, so it can run on a server or in tests; every method is thread-safe.
+public class TwitEngine {
+    private final TwitUserGroup rootGroup; // root group
+    private final Map<String, Object> entityIndex; // registry of users and groups by ID
+    private final List<TwitListener> listeners; // listeners told about changes
+
+    // constructor for TwitEngine class
+    private TwitEngine() {
+        this.rootGroup = new TwitUserGroup("Root"); // initialize root group
+        this.entityIndex = new ConcurrentHashMap<>(); // initialize ID registry
+        this.listeners = new CopyOnWriteArrayList<>(); // initialize listeners
+        entityIndex.put(rootGroup.getId(), rootGroup); // register the root group
+    }
+
+    // holder class so the singleton is created lazily and published safely
+    private static class Holder {
+        static final TwitEngine INSTANCE = new TwitEngine();
+    }
+
+    // singleton instance getter
+    public static TwitEngine getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    // get the root group
+    public TwitUserGroup getRootGroup() {
+        return rootGroup;
+    }
+
+    // start telling a listener about changes
+    public void addListener(TwitListener listener) {
+        listeners.add(listener);
+    }
+
+    // stop telling a listener about changes
+    public void removeListener(TwitListener listener) {
+        listeners.remove(listener);
+    }
+
+    // create a user in a group, returns null if the ID is taken
+    public TwitUser createUser(String id, TwitUserGroup group) {
+        TwitUser user = new TwitUser(id);
+        return addUser(user, group) ? user : null;
+    }
+
+    // create a group in a parent group, returns null if the ID is taken
+    public TwitUserGroup createGroup(String id, TwitUserGroup parentGroup) {
+        TwitUserGroup group = new TwitUserGroup(id);
+        return addGroup(group, parentGroup) ? group : null;
+    }
+
+    // add a user to a group, returns false if the ID is taken
+    public boolean addUser(TwitUser user, TwitUserGroup group) {
+        return addEntity(user, user.getId(), group);
+    }
+
+    // add a group to a parent group, returns false if the ID is taken
+    public boolean addGroup(TwitUserGroup group, TwitUserGroup parentGroup) {
+        return addEntity(group, group.getId(), parentGroup);
+    }
+
+    // register a user or group and tell the listeners
+    private boolean addEntity(Object entity, String id, TwitUserGroup parentGroup) {
+        List<Object> registered = entityIndex.get(parentGroup.getId()) == parentGroup
+                ? registerEntity(entity, id, parentGroup) : null;
+        if (registered == null) {
+            return false; // unknown parent group or duplicate ID
+        }
+        EventJournal.awaitCurrent(); // after the structure lock is released
+        fireEntitiesAdded(registered);
+        return true;
+    }
+
+    // claim the IDs, attach the entity to its parent group and journal it, without telling the listeners;
+    // a group built beforehand brings its members along, so their IDs are claimed too, all or none.
+    // returns the registered entities, parents before children, or null if an ID is taken
+    List<Object> registerEntity(Object entity, String id, TwitUserGroup parentGroup) {
+        long start = Metrics.start();
+        // posts and follows journal under the read lock, so none that finds the new ID can be journaled
+        // ahead of its creation record
+        TwitUserGroup.STRUCTURE_LOCK.writeLock().lock();
+        try {
+            List<Object> entities = entity instanceof TwitUserGroup
+                    ? TreeAnalytics.evaluate((TwitUserGroup) entity, TreeStatistics.ENTITIES)
+                    : Collections.singletonList(entity);
+            if (!claimIds(entities, id)) {
+                return null; // duplicate ID
+            }
+            parentGroup.addMember(entity); // add user/group to the parent group
+            EventJournal journal = EventJournal.current();
+            if (journal != null) {
+                for (Object registered : entities) { // parents first, so replay finds each parent group
+                    if (registered instanceof TwitUser) {
+                        journal.userCreated((TwitUser) registered);
+                    } else {
+                        journal.groupCreated((TwitUserGroup) registered);
+                    }
+                }
+            }
+            (entity instanceof TwitUser ? Metrics.ADD_USER : Metrics.ADD_GROUP).recordSince(start);
+            return entities;
+        } finally {
+            TwitUserGroup.STRUCTURE_LOCK.writeLock().unlock();
+        }
+    }
+
+    // claim the ID of every entity, the first one under the given ID, or none if any is taken
+    private boolean claimIds(List<Object> entities, String id) {
+        for (int i = 0; i < entities.size(); i++) {
+            if (entityIndex.putIfAbsent(i == 0 ? id : idOf(entities.get(i)), entities.get(i)) != null) {
+                for (int j = 0; j < i; j++) { // give back the ones already claimed
+                    entityIndex.remove(j == 0 ? id : idOf(entities.get(j)), entities.get(j));
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String idOf(Object entity) {
+        return entity instanceof TwitUser ? ((TwitUser) entity).getId() : ((TwitUserGroup) entity).getId();
+    }
+
+    // register a user or group loaded from storage, before any front end is attached
+    boolean restoreEntity(Object entity, String id, TwitUserGroup parentGroup) {
+        if (parentGroup == null || entityIndex.get(parentGroup.getId()) != parentGroup
+                || entityIndex.putIfAbsent(id, entity) != null) {
+            return false; // unknown parent group or already restored
+        }
+        parentGroup.addMember(entity);
+        return true;
+    }
+
+    // start following a user, returns false if already followed or the same user
+    public boolean follow(TwitUser follower, TwitUser followed) {
+        if (!addFollow(follower, followed)) {
+            return false;
+        }
+        EventJournal.awaitCurrent(); // report the follow once it is on disk
+        return true;
+    }
+
+    // start following a user without waiting for the journal, for bulk loads that wait once at the end
+    boolean addFollow(TwitUser follower, TwitUser followed) {
+        if (!follower.follow(followed)) {
+            return false;
+        }
+        Metrics.FOLLOWS.increment();
+        return true;
+    }
+
+    // stop following a user, returns false if the user was not followed
+    public boolean unfollow(TwitUser follower, TwitUser followed) {
+        if (!follower.unfollow(followed)) {
+            return false;
+        }
+        Metrics.UNFOLLOWS.increment();
+        EventJournal.awaitCurrent();
+        return true;
+    }
+
+    // get the users who follow the user back
+    public List<TwitUser> getMutualFollows(TwitUser user) {
+        return user.getMutualFollows();
+    }
+
+    // suggest up to limit users for the user to follow, from the followings of the user's followings
+    public List<TwitUser> getWhoToFollow(TwitUser user, int limit) {
+        return user.getWhoToFollow(limit);
+    }
+
+    // post a tweet
+    public Tweet post(TwitUser author, String text) {
+        Tweet tweet = author.postTweet(text);
+        EventJournal.awaitCurrent(); // fan-out is already under way meanwhile
+        return tweet;
+    }
+
+    // post a tweet to every user in a group and its subgroups instead of the author's followers
+    public Tweet postToGroup(TwitUser author, TwitUserGroup group, String text) {
+        Tweet tweet = author.postTweetTo(group, text);
+        EventJournal.awaitCurrent();
+        return tweet;
+    }
+
+    // read the newest tweets of a news feed that come before the cursor, at most limit of them;
+    // start from TimelineCursor.NEWEST and pass the page's older cursor back to scroll down
+    public TimelinePage readTimelineBefore(TwitUser user, TimelineCursor cursor, int limit) {
+        long start = Metrics.start();
+        try {
+            return pageBefore(user, cursor, limit);
+        } finally {
+            Metrics.READ_TIMELINE.recordSince(start);
+        }
+    }
+
+    private TimelinePage pageBefore(TwitUser user, TimelineCursor cursor, int limit) {
+        long before = cursor.beforeId();
+        long[] ids = user.readNewsFeedBefore(before, readLimit(limit));
+        boolean hasOlder = ids.length > limit;
+        int first = hasOlder ? 1 : 0; // drop the extra oldest ID that was read only to see if there are more
+        if (first == ids.length) {
+            long newerId = Math.min(before, TweetStore.getInstance().getLastId() + 1) - 1;
+            return new TimelinePage(new ArrayList<Tweet>(), cursor, TimelineCursor.ofTweet(newerId), false,
+                    user.newestNewsFeedId() > newerId);
+        }
+        long newest = ids[ids.length - 1];
+        return new TimelinePage(loadNewestFirst(ids, first), TimelineCursor.ofTweet(ids[first]),
+                TimelineCursor.ofTweet(newest), hasOlder, user.newestNewsFeedId() > newest);
+    }
+
+    // read the oldest tweets of a news feed that come after the cursor, at most limit of them, so no tweet is
+    // skipped between pages; pass the page's newer cursor back to poll for new tweets
+    public TimelinePage readTimelineAfter(TwitUser user, TimelineCursor cursor, int limit) {
+        long start = Metrics.start();
+        try {
+            return pageAfter(user, cursor, limit);
+        } finally {
+            Metrics.READ_TIMELINE.recordSince(start);
+        }
+    }
+
+    private TimelinePage pageAfter(TwitUser user, TimelineCursor cursor, int limit) {
+        long after = cursor.afterId();
+        long[] ids = user.readNewsFeed(after, readLimit(limit));
+        boolean hasNewer = ids.length > limit;
+        int count = hasNewer ? limit : ids.length;
+        long oldestId = count == 0 ? Math.min(after, Long.MAX_VALUE - 1) + 1 : ids[0];
+        long newestId = count == 0 ? after : ids[count - 1];
+        return new TimelinePage(loadNewestFirst(hasNewer ? Arrays.copyOf(ids, count) : ids, 0),
+                TimelineCursor.ofTweet(oldestId), TimelineCursor.ofTweet(newestId),
+                user.readNewsFeedBefore(oldestId, 1).length > 0, hasNewer);
+    }
+
+    // one more than the page size, to tell whether there is another page
+    private static int readLimit(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Page size must be positive: " + limit);
+        }
+        return limit == Integer.MAX_VALUE ? limit : limit + 1;
+    }
+
+    // look up ascending tweet IDs from index first on, newest first
+    private static List<Tweet> loadNewestFirst(long[] ids, int first) {
+        TweetStore store = TweetStore.getInstance();
+        List<Tweet> tweets = new ArrayList<>(ids.length - first);
+        for (int i = ids.length - 1; i >= first; i--) {
+            tweets.add(store.get(ids[i]));
+        }
+        return tweets;
+    }
+
+    // find the newest tweets matching a query such as "java #jobs OR @alice", newest first
+    public List<Tweet> search(String query, int limit) {
+        long start = Metrics.start();
+        List<Tweet> tweets = SearchIndex.getInstance().search(query, limit);
+        Metrics.SEARCH.recordSince(start);
+        return tweets;
+    }
+
+    // find the newest tweets with a hashtag, newest first
+    public List<Tweet> findByHashtag(String hashtag, int limit) {
+        long start = Metrics.start();
+        List<Tweet> tweets = SearchIndex.getInstance().findByHashtag(hashtag, limit);
+        Metrics.SEARCH.recordSince(start);
+        return tweets;
+    }
+
+    // find the newest tweets mentioning a user, newest first
+    public List<Tweet> findByMention(String userId, int limit) {
+        long start = Metrics.start();
+        List<Tweet> tweets = SearchIndex.getInstance().findByMention(userId, limit);
+        Metrics.SEARCH.recordSince(start);
+        return tweets;
+    }
+
+    // get the k hashtags used most in the last windowMillis, counted by the minute
+    public List<SearchIndex.HashtagCount> getTrendingHashtags(long windowMillis, int k) {
+        return SearchIndex.getInstance().trendingHashtags(windowMillis, k);
+    }
+
+    // find a registered user or group by ID
+    public Object findEntity(String id) {
+        long start = Metrics.startSampled();
+        Object entity = entityIndex.get(id);
+        Metrics.LOOKUP.recordSince(start);
+        return entity;
+    }
+
+    // find a registered user by ID
+    public TwitUser findUserById(String userId) {
+        long start = Metrics.startSampled();
+        Object entity = userId == null ? null : entityIndex.get(userId);
+        Metrics.LOOKUP.recordSince(start);
+        return entity instanceof TwitUser ? (TwitUser) entity : null;
+    }
+
+    // get every registered user and group
+    public Collection<Object> getEntities() {
+        return entityIndex.values();
+    }
+
+    // count total users in the group
+    public int countTotalUsers(TwitUserGroup group) {
+        long start = Metrics.startSampled();
+        int count = group.getTotalUsers();
+        Metrics.COUNT_TOTALS.recordSince(start);
+        return count;
+    }
+
+    // count total groups in the group
+    public int countTotalGroups(TwitUserGroup group) {
+        long start = Metrics.startSampled();
+        int count = group.getTotalGroups();
+        Metrics.COUNT_TOTALS.recordSince(start);
+        return count;
+    }
+
+    // count total tweets in the group
+    public int countTotalTweets(TwitUserGroup group) {
+        long start = Metrics.startSampled();
+        int count = group.getTotalTweets();
+        Metrics.COUNT_TOTALS.recordSince(start);
+        return count;
+    }
+
+    // count total positive tweets in the group
+    public int countTotalPositiveTweets(TwitUserGroup group) {
+        long start = Metrics.startSampled();
+        int count = group.getTotalPositiveTweets();
+        Metrics.COUNT_TOTALS.recordSince(start);
+        return count;
+    }
+
+    // count total negative tweets in the group
+    public int countTotalNegativeTweets(TwitUserGroup group) {
+        long start = Metrics.startSampled();
+        int count = group.getTotalNegativeTweets();
+        Metrics.COUNT_TOTALS.recordSince(start);
+        return count;
+    }
+
+    // validate IDs for uniqueness; duplicates are rejected on insert, and members are attached only through
+    // registration, which claims every ID below the new member, so the group only has to be the registered
+    // owner of its ID
+    public boolean validateIds(TwitUserGroup group) {
+        long start = Metrics.startSampled();
+        boolean valid = entityIndex.get(group.getId()) == group;
+        Metrics.VALIDATE_IDS.recordSince(start);
+        return valid;
+    }
+
+    // get the ID of the user below the group with the most recent update, from the recency index
+    public String getLastUpdateUserId(TwitUserGroup group) {
+        long start = Metrics.startSampled();
+        TwitUser user = RecencyIndex.getInstance().mostRecent(group);
+        Metrics.LAST_UPDATE_USER.recordSince(start);
+        return user == null ? null : user.getId();
+    }
+
+    // get up to k users below the group, most recently updated first
+    public List<TwitUser> getRecentlyUpdatedUsers(TwitUserGroup group, int k) {
+        long start = Metrics.startSampled();
+        List<TwitUser> users = RecencyIndex.getInstance().topRecent(group, k);
+        Metrics.RECENT_USERS.recordSince(start);
+        return users;
+    }
+
+    // get the users below the group updated at or after the given time, most recently updated first
+    public List<TwitUser> getUsersActiveSince(TwitUserGroup group, long time) {
+        long start = Metrics.startSampled();
+        List<TwitUser> users = RecencyIndex.getInstance().activeSince(group, time);
+        Metrics.RECENT_USERS.recordSince(start);
+        return users;
+    }
+
+    // count users, groups and news feed tweets below the group by visiting every user, to check the
+    // rollups that the countTotal methods read
+    public TreeStatistics.Totals recountTotals(TwitUserGroup group) {
+        long start = Metrics.start();
+        TreeStatistics.Totals totals = TreeAnalytics.evaluate(group, TreeStatistics.TOTALS);
+        Metrics.RECOUNT_TOTALS.recordSince(start);
+        return totals;
+    }
+
+    // get every user and group below the group, parents before children
+    public List<Object> collectEntities(TwitUserGroup group) {
+        long start = Metrics.start();
+        List<Object> entities = TreeAnalytics.evaluate(group, TreeStatistics.ENTITIES);
+        List<Object> members = new ArrayList<>(entities.subList(1, entities.size())); // without the group itself
+        Metrics.COLLECT_ENTITIES.recordSince(start);
+        return members;
+    }
+
+    // tell the listeners about registered users and groups
+    void fireEntitiesAdded(List<Object> entities) {
+        if (entities.isEmpty()) {
+            return;
+        }
+        for (TwitListener listener : listeners) {
+            listener.entitiesAdded(entities);
+        }
+    }
+
+    void fireFollowed(TwitUser follower, TwitUser followed) {
+        for (TwitListener listener : listeners) {
+            listener.followed(follower, followed);
+        }
+    }
+
+    void fireUnfollowed(TwitUser follower, TwitUser followed) {
+        for (TwitListener listener : listeners) {
+            listener.unfollowed(follower, followed);
+        }
+    }
+
+    void fireTweetPosted(Tweet tweet) {
+        for (TwitListener listener : listeners) {
+            listener.tweetPosted(tweet);
+        }
+    }
+}
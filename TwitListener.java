@@ -0,0 +1,20 @@
+import java.util.List;
+
+// twitListener is told about changes to the directory, on the thread that made the change
+interface TwitListener {
+    // users or groups were added, parents before children; one call per create or bulk import
+    default void entitiesAdded(List<Object> entities) {
+    }
+
+    // a user started following another user
+    default void followed(TwitUser follower, TwitUser followed) {
+    }
+
+    // a user stopped following another user
+    default void unfollowed(TwitUser follower, TwitUser followed) {
+    }
+
+    // a tweet was posted; pushed copies may still be on their way to follower inboxes
+    default void tweetPosted(Tweet tweet) {
+    }
+}
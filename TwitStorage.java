@@ -0,0 +1,423 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// twitStorage class makes the directory durable: a compacted snapshot of the group tree, users,
+// follow edges and tweets, plus the EventJournal of everything since. On startup the snapshot is
+// memory-mapped and loaded, then the journal tail is replayed; snapshots are taken periodically
+// and on shutdown, after which older journal files are deleted
+class TwitStorage implements AutoCloseable {
+    private static final int MAGIC = 0x54574954; // "TWIT"
+    // 2 adds sentiment scores and negative totals, 3 group posts, 4 the feed floors of timeline retention,
+    // 5 when each group was attached
+    private static final int VERSION = 5;
+    private static final String SNAPSHOT = "snapshot.bin";
+
+    private final TwitEngine engine; // directory being stored
+    private final Path directory; // directory holding the snapshot and journal files
+    private final EventJournal journal; // journal receiving new changes
+    private final ScheduledExecutorService scheduler; // runs periodic snapshots
+    private final long snapshotRecords; // journal records that trigger a snapshot
+    private long lastSnapshot; // when the last snapshot was taken
+
+    // constructor for TwitStorage class, use open()
+    private TwitStorage(TwitEngine engine, Path directory, long generation, long snapshotRecords) throws IOException {
+        this.engine = engine;
+        this.directory = directory;
+        this.journal = new EventJournal(directory, generation, Long.getLong("twitapp.commitMillis", 5),
+                Boolean.parseBoolean(System.getProperty("twitapp.journal.sync", "true")));
+        this.snapshotRecords = snapshotRecords;
+        this.lastSnapshot = System.currentTimeMillis();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "snapshot");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    // load the directory from disk and start journaling changes
+    static TwitStorage open(TwitEngine engine, Path directory) throws IOException {
+        Files.createDirectories(directory);
+        long started = System.nanoTime();
+        EventJournal.setCurrent(null); // nothing loaded is journaled again
+        long nextGeneration = 0;
+        Path snapshot = directory.resolve(SNAPSHOT);
+        if (Files.exists(snapshot)) {
+            nextGeneration = loadSnapshot(engine, snapshot);
+        }
+        long replayed = 0;
+        long generation = nextGeneration;
+        for (Map.Entry<Long, Path> file : journalFiles(directory).entrySet()) {
+            if (file.getKey() >= nextGeneration) {
+                replayed += EventJournal.replay(file.getValue(), new Replayer(engine));
+                generation = file.getKey();
+            }
+        }
+        System.out.printf("Loaded %d users and groups, %d tweets, %d journal records in %d ms%n",
+                engine.getEntities().size(), TweetStore.getInstance().getLastId(), replayed,
+                (System.nanoTime() - started) / 1_000_000);
+
+        TwitStorage storage = new TwitStorage(engine, directory, generation,
+                Long.getLong("twitapp.snapshotRecords", 1_000_000));
+        EventJournal.setCurrent(storage.journal);
+        long interval = Long.getLong("twitapp.snapshotSeconds", 300);
+        storage.scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                storage.snapshotIfDue(interval * 1000);
+            }
+        }, 10, 10, TimeUnit.SECONDS);
+        return storage;
+    }
+
+    // take a snapshot once enough records or time have piled up
+    private void snapshotIfDue(long intervalMillis) {
+        long records = journal.getRecordCount();
+        if (records >= snapshotRecords
+                || (records > 0 && System.currentTimeMillis() - lastSnapshot >= intervalMillis)) {
+            try {
+                snapshot();
+            } catch (IOException e) {
+                e.printStackTrace(); // the journal still has everything
+            }
+        }
+    }
+
+    // write a compacted snapshot and drop the journal files it covers; synchronized so the scheduler and close
+    // never write the same temporary file
+    synchronized void snapshot() throws IOException {
+        Path temporary = directory.resolve(SNAPSHOT + ".tmp");
+        long nextGeneration;
+        View view;
+        // no posts, follows or new members while the journal rotates and the view is taken; the tweets, the
+        // bulk of the snapshot, are written afterwards while posting carries on
+        TwitUserGroup.STRUCTURE_LOCK.writeLock().lock();
+        try {
+            nextGeneration = journal.getGeneration() + 1;
+            journal.rotate(nextGeneration); // later changes go to a journal the snapshot does not cover
+            view = new View(engine.getRootGroup());
+        } finally {
+            TwitUserGroup.STRUCTURE_LOCK.writeLock().unlock();
+        }
+        writeSnapshot(temporary, nextGeneration, view);
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(SNAPSHOT), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        for (Map.Entry<Long, Path> file : journalFiles(directory).entrySet()) {
+            if (file.getKey() < nextGeneration) {
+                Files.delete(file.getValue());
+            }
+        }
+        lastSnapshot = System.currentTimeMillis();
+    }
+
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+        snapshot();
+        EventJournal.setCurrent(null);
+        journal.close();
+    }
+
+    // the directory as it was when a snapshot was taken, captured under the structure write lock. tweets are
+    // immutable and stored by ascending ID, so the last tweet ID is all that is kept of them
+    private static final class View {
+        final List<TwitUserGroup> groups = new ArrayList<>(); // breadth first, so parents come before children
+        final long[] groupTotals; // tweets, positive and negative tweets of each group
+        final List<TwitUser> users = new ArrayList<>();
+        final long[] userTimes; // last update, member since and dropped through of each user
+        final Map<TwitUser, Integer> userIndex = new HashMap<>();
+        final long[][] followings; // followed index, since pairs of each user, by graph index
+        final long lastId; // newest tweet covered
+
+        View(TwitUserGroup root) {
+            Deque<TwitUserGroup> pending = new ArrayDeque<>();
+            pending.add(root);
+            while (!pending.isEmpty()) {
+                TwitUserGroup group = pending.poll();
+                groups.add(group);
+                users.addAll(group.users);
+                pending.addAll(group.subgroups);
+            }
+            groupTotals = new long[groups.size() * 3];
+            for (int i = 0; i < groups.size(); i++) {
+                TwitUserGroup group = groups.get(i);
+                groupTotals[i * 3] = group.totalTweets.sum();
+                groupTotals[i * 3 + 1] = group.totalPositiveTweets.sum();
+                groupTotals[i * 3 + 2] = group.totalNegativeTweets.sum();
+            }
+            userTimes = new long[users.size() * 3];
+            followings = new long[users.size()][];
+            SocialGraph graph = SocialGraph.getInstance();
+            for (int i = 0; i < users.size(); i++) {
+                TwitUser user = users.get(i);
+                userIndex.put(user, i);
+                userTimes[i * 3] = user.lastUpdateTime;
+                userTimes[i * 3 + 1] = user.memberSince;
+                userTimes[i * 3 + 2] = user.droppedThrough;
+                followings[i] = graph.followingEdges(user.graphIndex()); // a copy
+            }
+            lastId = TweetStore.getInstance().getLastId();
+        }
+    }
+
+    // write groups, users, follow edges, tweets and group totals as the view saw them
+    private static void writeSnapshot(Path path, long nextGeneration, View view) throws IOException {
+        List<TwitUserGroup> groups = view.groups;
+        List<TwitUser> users = view.users;
+        Map<TwitUser, Integer> userIndex = view.userIndex;
+        TweetStore store = TweetStore.getInstance();
+        SocialGraph graph = SocialGraph.getInstance();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(path), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(nextGeneration);
+            out.writeLong(view.lastId);
+            out.writeInt(groups.size() - 1); // the root group always exists
+            for (TwitUserGroup group : groups.subList(1, groups.size())) {
+                writeString(out, group.getId());
+                writeString(out, group.getParent().getId()); // groups never move once attached
+                out.writeLong(group.creationTime);
+                out.writeLong(group.attachedSince);
+            }
+            out.writeInt(users.size());
+            for (int i = 0; i < users.size(); i++) {
+                TwitUser user = users.get(i);
+                writeString(out, user.getId());
+                writeString(out, user.getParent().getId());
+                out.writeLong(user.creationTime);
+                out.writeLong(view.userTimes[i * 3]);
+                out.writeLong(view.userTimes[i * 3 + 1]);
+                out.writeLong(view.userTimes[i * 3 + 2]);
+            }
+            long edges = 0;
+            for (long[] followings : view.followings) {
+                for (int i = 0; i < followings.length; i += 2) {
+                    edges += userIndex.containsKey(graph.user((int) followings[i])) ? 1 : 0;
+                }
+            }
+            out.writeLong(edges);
+            for (int u = 0; u < users.size(); u++) {
+                long[] followings = view.followings[u];
+                for (int i = 0; i < followings.length; i += 2) {
+                    Integer followed = userIndex.get(graph.user((int) followings[i]));
+                    if (followed == null) {
+                        continue; // users outside the tree are not kept
+                    }
+                    out.writeInt(u);
+                    out.writeInt(followed);
+                    out.writeLong(followings[i + 1]);
+                }
+            }
+            long tweets = 0;
+            for (long id = 1; id <= view.lastId; id++) {
+                Tweet tweet = store.get(id);
+                tweets += tweet != null && userIndex.containsKey(tweet.author) ? 1 : 0;
+            }
+            out.writeLong(tweets);
+            for (long id = 1; id <= view.lastId; id++) {
+                Tweet tweet = store.get(id);
+                if (tweet == null || !userIndex.containsKey(tweet.author)) {
+                    continue; // tweets of users outside the tree are not kept
+                }
+                out.writeLong(tweet.id);
+                out.writeInt(userIndex.get(tweet.author));
+                out.writeLong(tweet.postedAt);
+                out.writeByte((tweet.isPositive() ? 1 : 0) | (tweet.pushed ? 2 : 0) | (tweet.audience != null ? 4 : 0));
+                out.writeInt(tweet.sentiment);
+                if (tweet.audience != null) {
+                    writeString(out, tweet.audience.getId());
+                }
+                writeString(out, tweet.text);
+            }
+            for (long total : view.groupTotals) {
+                out.writeLong(total);
+            }
+        }
+    }
+
+    // load a snapshot through a memory mapping, returns the first journal generation it does not cover
+    private static long loadSnapshot(TwitEngine engine, Path path) throws IOException {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot larger than 2 GB: " + path);
+            }
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // stays valid after close
+        }
+        if (in.getInt() != MAGIC) {
+            throw new IOException("Not a TwitApp snapshot: " + path);
+        }
+        int version = in.getInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported snapshot version " + version + ": " + path);
+        }
+        long nextGeneration = in.getLong();
+        in.getLong(); // last tweet ID, implied by the tweets themselves
+        List<TwitUserGroup> groups = new ArrayList<>();
+        groups.add(engine.getRootGroup());
+        int groupCount = in.getInt();
+        for (int i = 0; i < groupCount; i++) {
+            String id = EventJournal.getString(in);
+            String parentId = EventJournal.getString(in);
+            TwitUserGroup group = new TwitUserGroup(id, in.getLong());
+            engine.restoreEntity(group, id, (TwitUserGroup) engine.findEntity(parentId));
+            if (version >= 5) {
+                group.attachedSince = in.getLong(); // attaching during the load saw no tweets yet
+            }
+            groups.add(group);
+        }
+        int userCount = in.getInt();
+        TwitUser[] users = new TwitUser[userCount];
+        long[] lastUpdates = new long[userCount];
+        for (int i = 0; i < userCount; i++) {
+            String id = EventJournal.getString(in);
+            String parentId = EventJournal.getString(in);
+            users[i] = new TwitUser(id, in.getLong());
+            lastUpdates[i] = in.getLong();
+            engine.restoreEntity(users[i], id, (TwitUserGroup) engine.findEntity(parentId));
+            if (version >= 3) {
+                users[i].memberSince = in.getLong(); // joining during the load saw no tweets yet
+            }
+            if (version >= 4) {
+                users[i].droppedThrough = in.getLong(); // restored tweets skip the dropped part of the inbox
+            }
+        }
+        long edges = in.getLong();
+        for (long i = 0; i < edges; i++) {
+            TwitUser follower = users[in.getInt()];
+            follower.restoreFollow(users[in.getInt()], in.getLong());
+        }
+        TweetStore store = TweetStore.getInstance();
+        long tweets = in.getLong();
+        for (long i = 0; i < tweets; i++) {
+            long id = in.getLong();
+            TwitUser author = users[in.getInt()];
+            long postedAt = in.getLong();
+            int flags = in.get();
+            int sentiment = version >= 2 ? in.getInt() : flags & 1; // version 1 only knew positive or not
+            TwitUserGroup audience = (flags & 4) != 0 ? (TwitUserGroup) engine.findEntity(EventJournal.getString(in))
+                    : null;
+            Tweet tweet = store.restore(id, author, EventJournal.getString(in), postedAt, sentiment,
+                    (flags & 2) != 0, audience);
+            author.restoreTweet(tweet, true);
+        }
+        for (TwitUserGroup group : groups) {
+            group.restoreTweetTotals(in.getLong(), in.getLong(), version >= 2 ? in.getLong() : 0);
+        }
+        for (int i = 0; i < userCount; i++) {
+            users[i].lastUpdateTime = lastUpdates[i];
+            RecencyIndex.getInstance().touched(users[i]);
+        }
+        return nextGeneration;
+    }
+
+    // write a length-prefixed UTF-8 string
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    // find journal files by generation, oldest first
+    private static TreeMap<Long, Path> journalFiles(Path directory) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "journal-*.log")) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                files.put(Long.parseLong(name.substring("journal-".length(), name.length() - ".log".length())), file);
+            }
+        }
+        return files;
+    }
+
+    // replayer applies journal records that are not in the directory yet
+    private static class Replayer implements EventJournal.Handler {
+        private final TwitEngine engine;
+
+        Replayer(TwitEngine engine) {
+            this.engine = engine;
+        }
+
+        @Override
+        public void groupCreated(String id, String parentId, long creationTime) {
+            Object parent = engine.findEntity(parentId);
+            if (parent instanceof TwitUserGroup) {
+                engine.restoreEntity(new TwitUserGroup(id, creationTime), id, (TwitUserGroup) parent);
+            }
+        }
+
+        @Override
+        public void userCreated(String id, String parentId, long creationTime) {
+            Object parent = engine.findEntity(parentId);
+            if (parent instanceof TwitUserGroup) {
+                engine.restoreEntity(new TwitUser(id, creationTime), id, (TwitUserGroup) parent);
+            }
+        }
+
+        @Override
+        public void followed(String followerId, String followedId, long since) {
+            Object follower = engine.findEntity(followerId);
+            Object followed = engine.findEntity(followedId);
+            if (follower instanceof TwitUser && followed instanceof TwitUser) {
+                ((TwitUser) follower).restoreFollow((TwitUser) followed, since); // ignored if already there
+            }
+        }
+
+        @Override
+        public void unfollowed(String followerId, String followedId) {
+            Object follower = engine.findEntity(followerId);
+            Object followed = engine.findEntity(followedId);
+            if (follower instanceof TwitUser && followed instanceof TwitUser) {
+                ((TwitUser) follower).restoreUnfollow((TwitUser) followed);
+            }
+        }
+
+        @Override
+        public void tweetPosted(long id, String authorId, long postedAt, int sentiment, boolean pushed,
+                                String audienceId, String text) {
+            Object author = engine.findEntity(authorId);
+            Object audience = audienceId == null ? null : engine.findEntity(audienceId);
+            TweetStore store = TweetStore.getInstance();
+            if (author instanceof TwitUser && store.get(id) == null
+                    && (audienceId == null || audience instanceof TwitUserGroup)) {
+                TwitUser user = (TwitUser) author;
+                user.restoreTweet(store.restore(id, user, text, postedAt, sentiment, pushed, (TwitUserGroup) audience),
+                        false);
+            }
+        }
+
+        @Override
+        public void feedDropped(String userId, long throughId) {
+            Object user = engine.findEntity(userId);
+            if (user instanceof TwitUser) {
+                ((TwitUser) user).restoreDrop(throughId);
+            }
+        }
+    }
+}
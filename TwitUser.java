@@ -0,0 +1,714 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+// twitUser class represents a user in the TwitApp
+//
+// concurrency: posts and follows may come from any thread. A user's own monitor orders its
+// posts against new follow edges pointing at it, so every tweet either reaches a follower or
+// predates the follow. The tree-wide read lock keeps group membership stable meanwhile.
+// Follower sets and per-group follower counts are concurrent maps, feeds are synchronized
+// ID lists filled by the FanoutPipeline workers, and feed listeners are called on the thread
+// that posted or delivered the tweet.
+class TwitUser {
+    final String id; // user's ID
+    volatile int index = -1; // dense index of the user in the SocialGraph, which holds the follow edges; -1 until used
+    final Map<TwitUserGroup, AtomicInteger> followerGroups; // number of followers below each group
+    final TweetIdList tweetLog; // IDs of tweets posted by the user
+    final TweetIdList pulledLog; // IDs of the user's tweets that followers pull on read
+    final TweetIdList inbox; // IDs of tweets pushed by followed users
+    volatile long droppedThrough; // pushed entries with IDs up to this were dropped from the inbox by timeline retention
+    volatile long lastFeedRead; // when the news feed was last read, for least-recently-read eviction
+    volatile boolean unfollowed; // whether the user ever unfollowed anyone, so deliveries recheck the edges
+    final List<FeedListener> feedListeners; // listeners told about tweets entering the news feed
+    final long creationTime; // when the user was created
+    volatile long lastUpdateTime; // when the user was last updated
+    final AtomicBoolean recencyQueued; // whether the RecencyIndex has yet to see the last update time
+    RecencyIndex.Entry recencyEntry; // the user's place in the RecencyIndex, guarded by its lock
+    volatile TwitUserGroup parent; // group the user belongs to
+    volatile TwitUserGroup[] ancestors; // groups above the user, the top-level group first
+    volatile long memberSince; // newest tweet ID when the user joined its group, see joinedBelow for groups above
+    volatile boolean broadcasted; // whether the user ever posted to a group, so follower bookkeeping skips those
+
+    // strategy deciding whether tweets are pushed to followers or pulled on read
+    static volatile TimelineStrategy timelineStrategy = TimelineStrategy.fromSystemProperties();
+
+    // users with feed listeners
+    private static final List<TwitUser> watchedFeeds = new CopyOnWriteArrayList<>();
+
+    // updater that only moves lastUpdateTime forward
+    private static final AtomicLongFieldUpdater<TwitUser> LAST_UPDATE =
+            AtomicLongFieldUpdater.newUpdater(TwitUser.class, "lastUpdateTime");
+
+    // constructor for TwitUser class
+    public TwitUser(String id) {
+        this(id, System.currentTimeMillis());
+    }
+
+    // constructor for a user restored from storage
+    TwitUser(String id, long creationTime) {
+        this.id = id; // set the user's ID
+        this.followerGroups = new ConcurrentHashMap<>(); // initialize follower group counts
+        this.tweetLog = new TweetIdList(); // initialize tweet log
+        this.pulledLog = new TweetIdList(); // initialize pulled tweet log
+        this.inbox = new TweetIdList(TimelineRetention.RESIDENT_BYTES); // initialize inbox, counted for retention
+        this.feedListeners = new CopyOnWriteArrayList<>(); // initialize feed listeners
+        this.creationTime = creationTime; // set creation time
+        this.lastUpdateTime = this.creationTime; // set last update time to creation time
+        this.recencyQueued = new AtomicBoolean();
+        this.ancestors = TwitUserGroup.NO_ANCESTORS;
+    }
+
+    // get user id
+    public String getId() {
+        return id;
+    }
+
+    // get followers of the user
+    public List<TwitUser> getFollowers() {
+        return users(SocialGraph.getInstance().followers(graphIndex()));
+    }
+
+    // get followings of the user
+    public List<TwitUser> getFollowings() {
+        return users(SocialGraph.getInstance().followings(graphIndex()));
+    }
+
+    // get number of followers of the user
+    public int getFollowerCount() {
+        return SocialGraph.getInstance().followerCount(graphIndex());
+    }
+
+    // get number of users the user follows
+    public int getFollowingCount() {
+        return SocialGraph.getInstance().followingCount(graphIndex());
+    }
+
+    // get the users who follow the user back
+    public List<TwitUser> getMutualFollows() {
+        return users(SocialGraph.getInstance().mutualFollows(graphIndex()));
+    }
+
+    // suggest up to limit users to follow, ranked by how many of the user's followings follow them
+    public List<TwitUser> getWhoToFollow(int limit) {
+        return users(SocialGraph.getInstance().whoToFollow(graphIndex(), limit));
+    }
+
+    // get the user's graph index, giving the user one on first use so users never attached leave no node behind
+    int graphIndex() {
+        int graphIndex = index;
+        return graphIndex >= 0 ? graphIndex : SocialGraph.getInstance().register(this);
+    }
+
+    // look up users by graph index
+    private static List<TwitUser> users(int[] indexes) {
+        SocialGraph graph = SocialGraph.getInstance();
+        List<TwitUser> users = new ArrayList<>(indexes.length);
+        for (int userIndex : indexes) {
+            users.add(graph.user(userIndex));
+        }
+        return users;
+    }
+
+    // copy the followed users as followed index, since pairs
+    private long[] followingEdges() {
+        return SocialGraph.getInstance().followingEdges(graphIndex());
+    }
+
+    // get news feed of the user, oldest tweet first
+    public List<String> getNewsFeed() {
+        TweetStore store = TweetStore.getInstance();
+        long[] ids = getNewsFeedIds();
+        List<String> feed = new ArrayList<>(ids.length);
+        for (long tweetId : ids) {
+            feed.add(store.get(tweetId).text);
+        }
+        return feed;
+    }
+
+    // build the news feed IDs by merging the user's own log, the inbox and the logs of pulled followings
+    long[] getNewsFeedIds() {
+        return readNewsFeed(0, Integer.MAX_VALUE);
+    }
+
+    // read at most max news feed IDs greater than the given one, oldest first
+    long[] readNewsFeed(long after, int max) {
+        lastFeedRead = System.currentTimeMillis();
+        List<long[]> sources = new ArrayList<>();
+        sources.add(tweetLog.snapshotAfter(after, max));
+        sources.add(inbox.snapshotAfter(after, max));
+        long[] followings = followingEdges();
+        for (int i = 0; i < followings.length; i += 2) {
+            TwitUser following = SocialGraph.getInstance().user((int) followings[i]);
+            long[] pulled = following.pulledLog.snapshotAfter(Math.max(after, followings[i + 1]), max);
+            if (pulled.length > 0) {
+                sources.add(pulled);
+            }
+        }
+        long[] merged = TweetIdList.merge(sources);
+        return merged.length <= max ? merged : Arrays.copyOf(merged, max);
+    }
+
+    // read at most max news feed IDs less than the given one, the newest of them, oldest first
+    long[] readNewsFeedBefore(long before, int max) {
+        lastFeedRead = System.currentTimeMillis();
+        List<long[]> sources = new ArrayList<>();
+        sources.add(tweetLog.snapshotBetween(0, before, max));
+        sources.add(inbox.snapshotBetween(0, before, max));
+        long[] followings = followingEdges();
+        for (int i = 0; i < followings.length; i += 2) {
+            TwitUser following = SocialGraph.getInstance().user((int) followings[i]);
+            long[] pulled = following.pulledLog.snapshotBetween(followings[i + 1], before, max);
+            if (pulled.length > 0) {
+                sources.add(pulled);
+            }
+        }
+        long[] merged = TweetIdList.merge(sources);
+        return merged.length <= max ? merged : Arrays.copyOfRange(merged, merged.length - max, merged.length);
+    }
+
+    // count news feed entries with IDs up to the given one; own, pushed and pulled tweets never overlap
+    int countNewsFeed(long upTo) {
+        int count = tweetLog.indexAfter(upTo) + inbox.indexAfter(upTo);
+        long[] followings = followingEdges();
+        for (int i = 0; i < followings.length; i += 2) {
+            TwitUser following = SocialGraph.getInstance().user((int) followings[i]);
+            TweetIdList pulled = following.pulledLog;
+            count += Math.max(0, pulled.indexAfter(upTo) - pulled.indexAfter(followings[i + 1]));
+        }
+        return count;
+    }
+
+    // get the newest news feed ID, 0 if the feed is empty
+    long newestNewsFeedId() {
+        long newest = Math.max(tweetLog.last(), inbox.last());
+        long[] followings = followingEdges();
+        for (int i = 0; i < followings.length; i += 2) {
+            TwitUser following = SocialGraph.getInstance().user((int) followings[i]);
+            long lastPulled = following.pulledLog.last();
+            if (lastPulled > followings[i + 1]) {
+                newest = Math.max(newest, lastPulled);
+            }
+        }
+        return newest;
+    }
+
+    // build the news feed IDs as they will be once every pending delivery has landed; pushed tweets up to
+    // droppedThrough have left the inbox, own and pulled ones stay
+    long[] getSettledNewsFeedIds() {
+        long dropped = droppedThrough;
+        List<long[]> sources = new ArrayList<>();
+        sources.add(tweetLog.snapshotAfter(0));
+        long[] followings = followingEdges();
+        for (int i = 0; i < followings.length; i += 2) {
+            TwitUser following = SocialGraph.getInstance().user((int) followings[i]);
+            long since = followings[i + 1];
+            long[] received = following.tweetLog.snapshotAfter(Math.max(dropped, since));
+            sources.add(following.broadcasted ? withoutBroadcasts(received) : received);
+            if (dropped > since) {
+                sources.add(following.pulledLog.snapshotAfter(since)); // pulled ones were never dropped
+            }
+        }
+        TwitUserGroup[] path = ancestors;
+        long joined = memberSince;
+        for (int depth = path.length - 1; depth >= 0; depth--) { // deepest first, each attach above raises the bar
+            sources.add(path[depth].broadcasts.snapshotAfter(Math.max(dropped, joined))); // own ones merge away
+            joined = Math.max(joined, path[depth].attachedSince);
+        }
+        return TweetIdList.merge(sources);
+    }
+
+    // get the newest tweet ID when the user came below the group: when it joined its own group or when the
+    // last group between the two was attached, whichever was later; posts to the group after it reach the user
+    long joinedBelow(TwitUserGroup group) {
+        TwitUserGroup[] path = ancestors;
+        long joined = memberSince;
+        for (int depth = path.length - 1; depth >= 0 && path[depth] != group; depth--) {
+            joined = Math.max(joined, path[depth].attachedSince);
+        }
+        return joined;
+    }
+
+    // keep the IDs of tweets that are still counted in this feed: pulled ones and pushed ones above droppedThrough
+    private long[] withoutDropped(long[] ids) {
+        TweetStore store = TweetStore.getInstance();
+        long dropped = droppedThrough;
+        int count = 0;
+        long[] kept = new long[ids.length];
+        for (long tweetId : ids) {
+            if (tweetId > dropped || !store.get(tweetId).pushed) {
+                kept[count++] = tweetId;
+            }
+        }
+        return count == ids.length ? ids : Arrays.copyOf(kept, count);
+    }
+
+    // keep the IDs of tweets that went to the author's followers rather than to a group
+    private static long[] withoutBroadcasts(long[] ids) {
+        TweetStore store = TweetStore.getInstance();
+        int count = 0;
+        long[] kept = new long[ids.length];
+        for (long tweetId : ids) {
+            if (store.get(tweetId).audience == null) {
+                kept[count++] = tweetId;
+            }
+        }
+        return count == ids.length ? ids : Arrays.copyOf(kept, count);
+    }
+
+    // add a follower to the user's list, same as follower.addFollowing(this)
+    public void addFollower(TwitUser follower) {
+        follower.follow(this);
+    }
+
+    // add a following user to the user's list, same as following.addFollower(this)
+    public void addFollowing(TwitUser following) {
+        follow(following);
+    }
+
+    // start following a user, returns false if the user is already followed or is this user
+    public boolean follow(TwitUser user) {
+        if (user == this) {
+            return false; // own tweets are always in the feed
+        }
+        TwitUserGroup.STRUCTURE_LOCK.readLock().lock(); // keep group membership stable
+        try {
+            synchronized (user) { // order against the user's posts
+                long since = TweetStore.getInstance().getLastId(); // only later tweets are received
+                if (!restoreFollow(user, since)) {
+                    return false;
+                }
+                EventJournal journal = EventJournal.current();
+                if (journal != null) {
+                    journal.followed(this, user, since); // in order with the user's tweets
+                }
+            }
+        } finally {
+            TwitUserGroup.STRUCTURE_LOCK.readLock().unlock();
+        }
+        TwitEngine.getInstance().fireFollowed(this, user);
+        return true;
+    }
+
+    // add a follow edge that starts after the given tweet ID, without journaling
+    boolean restoreFollow(TwitUser user, long since) {
+        if (user == this || !SocialGraph.getInstance().follow(graphIndex(), user.graphIndex(), since)) {
+            return false;
+        }
+        user.countFollowerIn(parent);
+        return true;
+    }
+
+    // stop following a user, returns false if the user was not followed; the user's tweets leave the news feed
+    public boolean unfollow(TwitUser user) {
+        TwitUserGroup.STRUCTURE_LOCK.readLock().lock(); // keep group membership stable
+        try {
+            synchronized (user) { // order against the user's posts
+                if (!restoreUnfollow(user)) {
+                    return false;
+                }
+                EventJournal journal = EventJournal.current();
+                if (journal != null) {
+                    journal.unfollowed(this, user);
+                }
+            }
+        } finally {
+            TwitUserGroup.STRUCTURE_LOCK.readLock().unlock();
+        }
+        for (FeedListener listener : feedListeners) {
+            listener.feedTrimmed(this); // entries left the middle of the feed
+        }
+        TwitEngine.getInstance().fireUnfollowed(this, user);
+        return true;
+    }
+
+    // remove a follow edge and the followed user's tweets from the news feed, without journaling
+    boolean restoreUnfollow(TwitUser user) {
+        unfollowed = true; // before the edge goes, so a delivery that misses the cleanup below sees it
+        long since = SocialGraph.getInstance().unfollow(graphIndex(), user.graphIndex());
+        if (since < 0) {
+            return false;
+        }
+        user.uncountFollowerIn(parent);
+        long[] received = user.tweetLog.snapshotAfter(since); // every one was counted in this feed when posted
+        if (user.broadcasted) {
+            received = withoutBroadcasts(received); // those came with the group and stay
+        }
+        if (droppedThrough > since) {
+            received = withoutDropped(received); // no longer counted; the floor only moves under the write lock
+        }
+        synchronized (inbox) { // deliveries recheck the edge under the same lock
+            inbox.removeAll(received);
+        }
+        if (parent != null) {
+            TweetStore store = TweetStore.getInstance();
+            int positive = 0;
+            int negative = 0;
+            for (long tweetId : received) {
+                Tweet tweet = store.get(tweetId);
+                positive += tweet.isPositive() ? 1 : 0;
+                negative += tweet.isNegative() ? 1 : 0;
+            }
+            parent.adjustTotals(0, 0, -received.length, -positive, -negative);
+        }
+        return true;
+    }
+
+    // count one follower in the given group and its ancestors
+    void countFollowerIn(TwitUserGroup group) {
+        for (TwitUserGroup g = group; g != null; g = g.parent) {
+            AtomicInteger count = followerGroups.get(g);
+            if (count == null) {
+                AtomicInteger created = new AtomicInteger();
+                count = followerGroups.putIfAbsent(g, created);
+                if (count == null) {
+                    count = created;
+                }
+            }
+            count.incrementAndGet();
+        }
+    }
+
+    // stop counting one follower in the given group and its ancestors
+    void uncountFollowerIn(TwitUserGroup group) {
+        for (TwitUserGroup g = group; g != null; g = g.parent) {
+            AtomicInteger count = followerGroups.get(g);
+            if (count != null) {
+                count.decrementAndGet(); // the entry stays, a zero count adds nothing
+            }
+        }
+    }
+
+    // check if the user receives tweets posted by the given user
+    public boolean isFollowing(TwitUser user) {
+        return SocialGraph.getInstance().isFollowing(graphIndex(), user.graphIndex());
+    }
+
+    // get the group the user belongs to
+    public TwitUserGroup getParent() {
+        return parent;
+    }
+
+    // get the groups from the top-level group down to the user's own
+    public List<TwitUserGroup> getPath() {
+        return new ArrayList<>(Arrays.asList(ancestors));
+    }
+
+    // get the time of the most recent tweet posted by or delivered to the user
+    public long getLastUpdateTime() {
+        long latest = lastUpdateTime; // own tweets and pushed tweets
+        TweetStore store = TweetStore.getInstance();
+        long[] followings = followingEdges();
+        for (int i = 0; i < followings.length; i += 2) {
+            TwitUser following = SocialGraph.getInstance().user((int) followings[i]);
+            long lastPulled = following.pulledLog.last();
+            if (lastPulled > followings[i + 1]) {
+                latest = Math.max(latest, store.get(lastPulled).postedAt); // latest pulled tweet
+            }
+        }
+        return latest;
+    }
+
+    // move the last update time forward, never back
+    void touch(long time) {
+        long current;
+        do {
+            current = lastUpdateTime;
+            if (current >= time) {
+                return;
+            }
+        } while (!LAST_UPDATE.compareAndSet(this, current, time));
+        RecencyIndex.getInstance().touched(this); // re-indexed on the next query
+    }
+
+    // post a tweet to the user's log and notify followers
+    public Tweet postTweet(String tweet) {
+        return postTweet(tweet, null);
+    }
+
+    // post a tweet to every user in a group and its subgroups instead of the followers; the group gets it
+    // as one delivery through the fan-out pipeline, an inbox update per user
+    public Tweet postTweetTo(TwitUserGroup group, String tweet) {
+        return postTweet(tweet, group);
+    }
+
+    // post a tweet to the followers, or to the users below the audience group if there is one
+    private Tweet postTweet(String tweet, TwitUserGroup audience) {
+        long start = Metrics.start();
+        long currentTime = System.currentTimeMillis(); // get current time
+        int sentiment = SentimentAnalyzer.getInstance().score(tweet); // classify once, outside the locks
+        Tweet entry;
+        TwitUser[] recipients = null; // users below the audience when the tweet was posted
+        TwitUserGroup.STRUCTURE_LOCK.readLock().lock(); // keep group membership stable
+        try {
+            synchronized (this) { // order against new followers
+                // decide how followers receive the tweet; a group always gets it pushed
+                boolean push = audience != null || timelineStrategy.shouldPush(this);
+                entry = TweetStore.getInstance().create(this, tweet, currentTime, sentiment, push, audience);
+                if (audience != null) {
+                    broadcasted = true; // before the log holds it, so follower bookkeeping never counts it
+                    audience.broadcasts.add(entry.id); // settled feeds below the group include it
+                    recipients = audience.subtreeUsers();
+                }
+                tweetLog.add(entry.id); // reference the stored tweet from the author's log
+                touch(entry.postedAt); // update last update time
+                if (!push) {
+                    pulledLog.add(entry.id); // followers merge it into their feeds on read
+                    RecencyIndex.getInstance().pulled(entry); // and are updated without being touched
+                }
+                countTweet(entry); // totals count the tweet now, inboxes get it from the pipeline
+                EventJournal journal = EventJournal.current();
+                if (journal != null) {
+                    journal.tweetPosted(entry); // in order with new followers
+                }
+            }
+        } finally {
+            TwitUserGroup.STRUCTURE_LOCK.readLock().unlock();
+        }
+        SearchIndex.getInstance().add(entry);
+        if (recipients != null) {
+            FanoutPipeline.getInstance().submit(entry, recipients); // one task for the whole group
+        } else if (entry.pushed) {
+            FanoutPipeline.getInstance().submit(entry); // copy into follower inboxes off this thread
+        }
+        for (TwitUser watched : watchedFeeds) {
+            if (watched == this || (!entry.pushed && watched.isFollowing(this))) {
+                watched.notifyFeed(entry); // own and pulled tweets are in the feed now
+            }
+        }
+        TwitEngine.getInstance().fireTweetPosted(entry);
+        (audience != null ? Metrics.TWEETS_BROADCAST : entry.pushed ? Metrics.TWEETS_PUSHED : Metrics.TWEETS_PULLED)
+                .increment();
+        Metrics.POST.recordSince(start);
+        return entry;
+    }
+
+    // put a stored tweet back into the logs and the inboxes of its followers, without journaling;
+    // counted is false when the group totals already include it
+    void restoreTweet(Tweet entry, boolean counted) {
+        if (entry.audience != null) {
+            broadcasted = true;
+            entry.audience.broadcasts.add(entry.id);
+        }
+        tweetLog.add(entry.id);
+        SearchIndex.getInstance().add(entry);
+        touch(entry.postedAt);
+        if (entry.audience != null) {
+            TwitUserGroup.STRUCTURE_LOCK.readLock().lock();
+            try {
+                for (TwitUser user : entry.audience.subtreeUsers()) {
+                    // skip users who joined later or whose feed was dropped past the tweet
+                    if (user != this && user.joinedBelow(entry.audience) < entry.id && user.droppedThrough < entry.id) {
+                        user.inbox.add(entry.id);
+                        user.touch(entry.postedAt);
+                    }
+                }
+            } finally {
+                TwitUserGroup.STRUCTURE_LOCK.readLock().unlock();
+            }
+        } else if (entry.pushed) {
+            SocialGraph graph = SocialGraph.getInstance();
+            long[] followers = graph.followerEdges(graphIndex());
+            for (int i = 0; i < followers.length; i += 2) {
+                TwitUser follower = graph.user((int) followers[i]);
+                if (followers[i + 1] < entry.id && follower.droppedThrough < entry.id) {
+                    follower.inbox.add(entry.id); // deliver directly, nobody is reading yet
+                    follower.touch(entry.postedAt);
+                }
+            }
+        } else {
+            pulledLog.add(entry.id);
+            RecencyIndex.getInstance().pulled(entry);
+        }
+        if (!counted) {
+            countTweet(entry);
+        }
+    }
+
+    // take delivery of pushed tweets, called by the fan-out pipeline; returns the number that reached the inbox
+    int receive(long[] ids) {
+        synchronized (inbox) { // unfollow cleans the inbox under the same lock
+            if (unfollowed) {
+                ids = stillFollowed(ids); // the author may have been unfollowed since the batch was planned
+            }
+            int from = 0;
+            while (from < ids.length && ids[from] <= droppedThrough) {
+                from++; // retention dropped the feed past these while they were queued
+            }
+            if (from > 0) {
+                ids = Arrays.copyOfRange(ids, from, ids.length);
+            }
+            inbox.addAll(ids); // add tweets to the inbox
+        }
+        if (ids.length == 0) {
+            return 0; // nothing reached the feed, so nothing changed
+        }
+        TweetStore store = TweetStore.getInstance();
+        long postedAt = 0;
+        for (long tweetId : ids) {
+            postedAt = Math.max(postedAt, store.get(tweetId).postedAt); // only tweets that reached the feed
+        }
+        touch(postedAt); // update last update time
+        if (!feedListeners.isEmpty()) {
+            for (long tweetId : ids) {
+                notifyFeed(store.get(tweetId));
+            }
+        }
+        TimelineRetention.getInstance().delivered(this);
+        return ids.length;
+    }
+
+    // keep the IDs of group posts and of tweets whose authors are still followed, by a follow that started
+    // before the tweet
+    private long[] stillFollowed(long[] ids) {
+        TweetStore store = TweetStore.getInstance();
+        SocialGraph graph = SocialGraph.getInstance();
+        int count = 0;
+        long[] kept = new long[ids.length];
+        for (long tweetId : ids) {
+            Tweet tweet = store.get(tweetId);
+            long since = graph.followedSince(graphIndex(), tweet.author.graphIndex());
+            if (tweet.audience != null || (since >= 0 && since < tweetId)) { // group posts do not need the follow
+                kept[count++] = tweetId;
+            }
+        }
+        return count == ids.length ? ids : Arrays.copyOf(kept, count);
+    }
+
+    // drop the pushed news feed entries with IDs up to the given one from the inbox and take them out of the
+    // group totals, returns the number of inbox entries removed; own and pulled tweets stay. an inbox with
+    // nothing that old is left alone, without locking, journaling or telling the listeners
+    int dropFeedUpTo(long id) {
+        if (!hasDroppable(id)) {
+            return 0; // an age limit asks again every sweep, most of the time for nothing
+        }
+        int dropped;
+        TwitUserGroup.STRUCTURE_LOCK.writeLock().lock(); // no post, follow or unfollow changes the feed meanwhile
+        try {
+            if (!hasDroppable(id)) {
+                return 0; // an unfollow took the entries meanwhile
+            }
+            dropped = restoreDrop(id);
+            EventJournal journal = EventJournal.current();
+            if (journal != null) {
+                journal.feedDropped(this, id);
+            }
+        } finally {
+            TwitUserGroup.STRUCTURE_LOCK.writeLock().unlock();
+        }
+        for (FeedListener listener : feedListeners) {
+            listener.feedTrimmed(this);
+        }
+        return dropped;
+    }
+
+    // check if the inbox holds an entry with an ID up to the given one above the current floor
+    private boolean hasDroppable(long id) {
+        return id > droppedThrough && inbox.indexAfter(id) > 0;
+    }
+
+    // raise droppedThrough to the given ID without journaling, returns the number of inbox entries removed;
+    // called with the STRUCTURE_LOCK write lock held or while loading
+    int restoreDrop(long id) {
+        if (id <= droppedThrough) {
+            return 0;
+        }
+        long[] before = parent == null ? null : getSettledNewsFeedIds();
+        int dropped;
+        synchronized (inbox) { // deliveries check the floor under the same lock
+            droppedThrough = id;
+            dropped = inbox.dropUpTo(id);
+        }
+        if (before != null) {
+            // what left the settled feed, including deliveries still queued, leaves the totals
+            long[] after = getSettledNewsFeedIds();
+            TweetStore store = TweetStore.getInstance();
+            int removed = 0;
+            int positive = 0;
+            int negative = 0;
+            for (int i = 0, j = 0; i < before.length; i++) {
+                while (j < after.length && after[j] < before[i]) {
+                    j++;
+                }
+                if (j == after.length || after[j] != before[i]) {
+                    Tweet tweet = store.get(before[i]);
+                    removed++;
+                    positive += tweet.isPositive() ? 1 : 0;
+                    negative += tweet.isNegative() ? 1 : 0;
+                }
+            }
+            parent.adjustTotals(0, 0, -removed, -positive, -negative);
+        }
+        return dropped;
+    }
+
+    // roll the tweet up to the groups of the author and of every follower, or of every user below its
+    // audience; called with STRUCTURE_LOCK held or while loading
+    private void countTweet(Tweet entry) {
+        int positive = entry.isPositive() ? 1 : 0;
+        int negative = entry.isNegative() ? 1 : 0;
+        if (parent != null) {
+            parent.adjustTotals(0, 0, 1, positive, negative); // author's own news feed
+        }
+        if (entry.audience != null) {
+            // the author's feed is counted already, every other user below the audience gets one entry
+            TwitUserGroup audience = entry.audience;
+            for (TwitUserGroup group : audience.subtreeGroups()) {
+                addFeedTweets(group, group.getTotalUsers() - (group.contains(this) ? 1 : 0), positive, negative);
+            }
+            int recipients = audience.getTotalUsers() - (audience.contains(this) ? 1 : 0);
+            for (TwitUserGroup group = audience.parent; group != null; group = group.parent) {
+                addFeedTweets(group, recipients, positive, negative);
+            }
+            return;
+        }
+        for (Map.Entry<TwitUserGroup, AtomicInteger> group : followerGroups.entrySet()) {
+            addFeedTweets(group.getKey(), group.getValue().get(), positive, negative); // followers' news feeds
+        }
+    }
+
+    // count a tweet in the news feeds of some users below a group
+    private static void addFeedTweets(TwitUserGroup group, int feeds, int positive, int negative) {
+        group.totalTweets.add(feeds);
+        group.totalPositiveTweets.add(positive * feeds);
+        group.totalNegativeTweets.add(negative * feeds);
+    }
+
+    // tell the feed listeners about a tweet that entered the news feed
+    private void notifyFeed(Tweet entry) {
+        for (FeedListener listener : feedListeners) {
+            listener.feedUpdated(this, entry);
+        }
+    }
+
+    // start telling a listener about tweets entering the news feed; register before reading the
+    // feed so no tweet falls between the read and the first notification
+    public void addFeedListener(FeedListener listener) {
+        synchronized (feedListeners) {
+            if (feedListeners.isEmpty()) {
+                watchedFeeds.add(this);
+            }
+            feedListeners.add(listener);
+        }
+    }
+
+    // stop telling a listener about the news feed
+    public void removeFeedListener(FeedListener listener) {
+        synchronized (feedListeners) {
+            if (feedListeners.remove(listener) && feedListeners.isEmpty()) {
+                watchedFeeds.remove(this);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return id;
+    }
+}
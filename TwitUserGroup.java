@@ -0,0 +1,372 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// twitUserGroup class represents a group of users
+//
+// every user and group caches its path of ancestor groups, so "is this user below that group" is one array
+// read: a group at depth d is below g exactly when its path holds g at index g's depth. for listing a
+// subtree, the tree under each top-level group is flattened into an Euler tour, users and groups in
+// preorder, where every group's subtree is a contiguous range; the tour is rebuilt on first use after the
+// tree changes, so bursts of queries between membership changes share one O(n) pass
+class TwitUserGroup {
+    // guards membership and parent links of every group; posts and follows share it, attaching members is exclusive
+    static final ReadWriteLock STRUCTURE_LOCK = new ReentrantReadWriteLock();
+
+    static final TwitUserGroup[] NO_ANCESTORS = new TwitUserGroup[0];
+    private static long structureVersion; // bumped by every membership change, guarded by STRUCTURE_LOCK
+
+    final String id; // group's ID
+    final List<Object> members; // users and groups in the order they joined, guarded by STRUCTURE_LOCK
+    final List<TwitUser> users; // users directly in the group, guarded by STRUCTURE_LOCK
+    final List<TwitUserGroup> subgroups; // groups directly in the group, guarded by STRUCTURE_LOCK
+    final long creationTime; // when the group was created
+    volatile TwitUserGroup parent; // group this group belongs to
+    volatile TwitUserGroup[] ancestors; // groups above this one, the top-level group first, replaced on every move
+    volatile long attachedSince; // newest tweet ID when the group was attached to its parent; later posts above reach it
+    final TweetIdList broadcasts; // IDs of tweets posted to everyone below this group
+    private volatile Tour tour; // flattened tree of a top-level group, null until first used
+    int firstTourUser; // where the subtree's users start in the top-level group's tour, published with it
+    int endTourUser; // where the subtree's users end in the tour
+    int firstTourGroup; // where the subtree's groups, this one first, start in the tour
+    int endTourGroup; // where the subtree's groups end in the tour
+    final LongAdder totalUsers; // users in this group and its subgroups
+    final LongAdder totalGroups; // this group and its subgroups
+    final LongAdder totalTweets; // news feed tweets of all users below this group
+    final LongAdder totalPositiveTweets; // positive news feed tweets of all users below this group
+    final LongAdder totalNegativeTweets; // negative news feed tweets of all users below this group
+    final RecencyIndex.Group recency; // users below this group by last update time
+
+    // constructor for TwitUserGroup class
+    public TwitUserGroup(String id) {
+        this(id, System.currentTimeMillis());
+    }
+
+    // constructor for a group restored from storage
+    TwitUserGroup(String id, long creationTime) {
+        this.id = id; // set the group's ID
+        this.members = new ArrayList<>(); // initialize members list
+        this.users = new ArrayList<>();
+        this.subgroups = new ArrayList<>();
+        this.ancestors = NO_ANCESTORS;
+        this.broadcasts = new TweetIdList();
+        this.creationTime = creationTime; // set creation time
+        this.totalUsers = new LongAdder();
+        this.totalGroups = new LongAdder();
+        this.totalTweets = new LongAdder();
+        this.totalPositiveTweets = new LongAdder();
+        this.totalNegativeTweets = new LongAdder();
+        this.recency = new RecencyIndex.Group();
+        this.totalGroups.increment(); // count the group itself
+    }
+
+    // get group id
+    public String getId() {
+        return id;
+    }
+
+    // get a snapshot of the members of the group
+    public List<Object> getMembers() {
+        STRUCTURE_LOCK.readLock().lock();
+        try {
+            return new ArrayList<>(members);
+        } finally {
+            STRUCTURE_LOCK.readLock().unlock();
+        }
+    }
+
+    // get a snapshot of the users directly in the group
+    public List<TwitUser> getUsers() {
+        STRUCTURE_LOCK.readLock().lock();
+        try {
+            return new ArrayList<>(users);
+        } finally {
+            STRUCTURE_LOCK.readLock().unlock();
+        }
+    }
+
+    // get a snapshot of the groups directly in the group
+    public List<TwitUserGroup> getSubgroups() {
+        STRUCTURE_LOCK.readLock().lock();
+        try {
+            return new ArrayList<>(subgroups);
+        } finally {
+            STRUCTURE_LOCK.readLock().unlock();
+        }
+    }
+
+    // get the group this group belongs to
+    public TwitUserGroup getParent() {
+        return parent;
+    }
+
+    // get the groups from the top-level group down to this one
+    public List<TwitUserGroup> getPath() {
+        List<TwitUserGroup> path = new ArrayList<>(Arrays.asList(ancestors));
+        path.add(this);
+        return path;
+    }
+
+    // get how many groups are above this one
+    public int getDepth() {
+        return ancestors.length;
+    }
+
+    // check if the user is in this group or one of its subgroups
+    public boolean contains(TwitUser user) {
+        return isBelow(user.ancestors, this);
+    }
+
+    // check if the group is this group or one of its subgroups
+    public boolean contains(TwitUserGroup group) {
+        return group == this || isBelow(group.ancestors, this);
+    }
+
+    // check if a path of ancestors passes through the group
+    private static boolean isBelow(TwitUserGroup[] ancestors, TwitUserGroup group) {
+        int depth = group.ancestors.length;
+        return depth < ancestors.length && ancestors[depth] == group;
+    }
+
+    // get every user in this group and its subgroups, in tree order
+    public List<TwitUser> getAllUsers() {
+        STRUCTURE_LOCK.readLock().lock();
+        try {
+            return Collections.unmodifiableList(Arrays.asList(subtreeUsers()));
+        } finally {
+            STRUCTURE_LOCK.readLock().unlock();
+        }
+    }
+
+    // copy the users of the subtree out of the tour, called with STRUCTURE_LOCK held
+    TwitUser[] subtreeUsers() {
+        Tour current = tour();
+        return Arrays.copyOfRange(current.users, firstTourUser, endTourUser);
+    }
+
+    // copy the groups of the subtree, this one first, out of the tour, called with STRUCTURE_LOCK held
+    TwitUserGroup[] subtreeGroups() {
+        Tour current = tour();
+        return Arrays.copyOfRange(current.groups, firstTourGroup, endTourGroup);
+    }
+
+    // get the current tour of the tree this group is in, rebuilding it if the tree changed since;
+    // called with STRUCTURE_LOCK held, so the tree cannot change meanwhile
+    private Tour tour() {
+        TwitUserGroup top = ancestors.length == 0 ? this : ancestors[0];
+        Tour current = top.tour;
+        if (current == null || current.version != structureVersion) {
+            synchronized (top) { // readers that find it stale together build it once
+                current = top.tour;
+                if (current == null || current.version != structureVersion) {
+                    current = new Tour(top, structureVersion);
+                    top.tour = current; // publishes the ranges written into the groups
+                }
+            }
+        }
+        return current;
+    }
+
+    // a top-level group's tree in preorder: each group's users, then its subgroups' trees
+    private static final class Tour {
+        final long version; // structureVersion the tour was built at
+        final TwitUser[] users;
+        final TwitUserGroup[] groups;
+        private int userCount;
+        private int groupCount;
+
+        Tour(TwitUserGroup top, long version) {
+            this.version = version;
+            this.users = new TwitUser[top.getTotalUsers()];
+            this.groups = new TwitUserGroup[top.getTotalGroups()];
+            visit(top);
+        }
+
+        private void visit(TwitUserGroup group) {
+            group.firstTourUser = userCount;
+            group.firstTourGroup = groupCount;
+            groups[groupCount++] = group;
+            for (TwitUser user : group.users) {
+                users[userCount++] = user;
+            }
+            for (TwitUserGroup subgroup : group.subgroups) {
+                visit(subgroup);
+            }
+            group.endTourUser = userCount;
+            group.endTourGroup = groupCount;
+        }
+    }
+
+    // get total users in this group and its subgroups
+    public int getTotalUsers() {
+        return totalUsers.intValue();
+    }
+
+    // get total groups in this group and its subgroups, including itself
+    public int getTotalGroups() {
+        return totalGroups.intValue();
+    }
+
+    // get total news feed tweets below this group
+    public int getTotalTweets() {
+        return totalTweets.intValue();
+    }
+
+    // get total positive news feed tweets below this group
+    public int getTotalPositiveTweets() {
+        return totalPositiveTweets.intValue();
+    }
+
+    // get total negative news feed tweets below this group
+    public int getTotalNegativeTweets() {
+        return totalNegativeTweets.intValue();
+    }
+
+    // get the share of news feed tweets below this group that are positive, in percent
+    public double getPositivePercentage() {
+        return percentage(totalPositiveTweets.sum(), totalTweets.sum());
+    }
+
+    // get the share of news feed tweets below this group that are negative, in percent
+    public double getNegativePercentage() {
+        return percentage(totalNegativeTweets.sum(), totalTweets.sum());
+    }
+
+    private static double percentage(long part, long whole) {
+        return whole == 0 ? 0 : 100.0 * part / whole;
+    }
+
+    // add a user or group to the group; outside the package, members join through TwitEngine.addUser and
+    // addGroup, which claim their IDs first
+    void addMember(Object member) {
+        if (member instanceof TwitUser) {
+            addMember((TwitUser) member);
+        } else if (member instanceof TwitUserGroup) {
+            addMember((TwitUserGroup) member);
+        } else {
+            throw new IllegalArgumentException("Not a user or group: " + member);
+        }
+    }
+
+    // add a user to the group and roll its totals up to the ancestors; a user belongs to one group only
+    void addMember(TwitUser user) {
+        STRUCTURE_LOCK.writeLock().lock(); // no posts or follows while totals move
+        try {
+            if (user.getParent() != null) {
+                throw new IllegalStateException("User " + user + " already belongs to " + user.getParent());
+            }
+            user.graphIndex(); // a user gets its graph node when attached, not when constructed
+            members.add(user);
+            users.add(user);
+            structureVersion++;
+            user.parent = this;
+            user.ancestors = pathBelow();
+            user.memberSince = TweetStore.getInstance().getLastId(); // posts wait for the lock, so none is half made
+            int positiveTweets = 0;
+            int negativeTweets = 0;
+            long[] feed = user.getSettledNewsFeedIds(); // posts already counted pending deliveries
+            for (long tweetId : feed) {
+                Tweet tweet = TweetStore.getInstance().get(tweetId);
+                positiveTweets += tweet.isPositive() ? 1 : 0;
+                negativeTweets += tweet.isNegative() ? 1 : 0;
+            }
+            adjustTotals(1, 0, feed.length, positiveTweets, negativeTweets);
+            countFollowings(user);
+            RecencyIndex.getInstance().attached(user);
+        } finally {
+            STRUCTURE_LOCK.writeLock().unlock();
+        }
+    }
+
+    // add a group to the group and roll its totals up to the ancestors; a group has one parent only
+    void addMember(TwitUserGroup group) {
+        STRUCTURE_LOCK.writeLock().lock(); // no posts or follows while totals move
+        try {
+            if (group.getParent() != null) {
+                throw new IllegalStateException("Group " + group + " already belongs to " + group.getParent());
+            }
+            if (group.contains(this)) {
+                throw new IllegalArgumentException("Group " + group + " cannot join its own subgroup " + this);
+            }
+            members.add(group);
+            subgroups.add(group);
+            structureVersion++;
+            group.attachedSince = TweetStore.getInstance().getLastId(); // before the paths, so readers of them see it
+            group.parent = this;
+            group.tour = null; // no longer a top-level group
+            group.movePaths(pathBelow());
+            adjustTotals(group.getTotalUsers(), group.getTotalGroups(), group.getTotalTweets(),
+                    group.getTotalPositiveTweets(), group.getTotalNegativeTweets());
+            countSubtreeFollowings(group);
+            RecencyIndex.getInstance().attached(group);
+        } finally {
+            STRUCTURE_LOCK.writeLock().unlock();
+        }
+    }
+
+    // the ancestors of a member of this group
+    private TwitUserGroup[] pathBelow() {
+        TwitUserGroup[] path = Arrays.copyOf(ancestors, ancestors.length + 1);
+        path[ancestors.length] = this;
+        return path;
+    }
+
+    // give the group and everything below it new ancestors
+    private void movePaths(TwitUserGroup[] path) {
+        ancestors = path;
+        TwitUserGroup[] below = pathBelow();
+        for (TwitUser user : users) {
+            user.ancestors = below;
+        }
+        for (TwitUserGroup subgroup : subgroups) {
+            subgroup.movePaths(below);
+        }
+    }
+
+    // count the user as a follower below this group for everyone the user follows
+    private void countFollowings(TwitUser user) {
+        for (TwitUser following : user.getFollowings()) {
+            following.countFollowerIn(this);
+        }
+    }
+
+    // count every user of an attached subgroup as a follower below this group
+    private void countSubtreeFollowings(TwitUserGroup group) {
+        for (TwitUser user : group.users) {
+            countFollowings(user);
+        }
+        for (TwitUserGroup subgroup : group.subgroups) {
+            countSubtreeFollowings(subgroup);
+        }
+    }
+
+    // overwrite this group's tweet totals with values restored from storage
+    void restoreTweetTotals(long tweets, long positiveTweets, long negativeTweets) {
+        totalTweets.reset();
+        totalTweets.add(tweets);
+        totalPositiveTweets.reset();
+        totalPositiveTweets.add(positiveTweets);
+        totalNegativeTweets.reset();
+        totalNegativeTweets.add(negativeTweets);
+    }
+
+    // add deltas to this group's totals and every ancestor's
+    void adjustTotals(int users, int groups, int tweets, int positiveTweets, int negativeTweets) {
+        for (TwitUserGroup group = this; group != null; group = group.parent) {
+            group.totalUsers.add(users);
+            group.totalGroups.add(groups);
+            group.totalTweets.add(tweets);
+            group.totalPositiveTweets.add(positiveTweets);
+            group.totalNegativeTweets.add(negativeTweets);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return id;
+    }
+}
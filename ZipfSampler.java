@@ -0,0 +1,25 @@
+import java.util.Arrays;
+import java.util.Random;
+
+// zipfSampler draws ranks 0..n-1 with probability proportional to 1 / (rank + 1)^exponent, so a few ranks
+// are drawn very often and most rarely; exponent 0 is uniform
+class ZipfSampler {
+    private final double[] cumulative;
+
+    // constructor for ZipfSampler class
+    ZipfSampler(int n, double exponent) {
+        cumulative = new double[n];
+        double total = 0;
+        for (int rank = 0; rank < n; rank++) {
+            total += 1 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = total;
+        }
+    }
+
+    // draw a rank
+    int next(Random random) {
+        double target = random.nextDouble() * cumulative[cumulative.length - 1];
+        int index = Arrays.binarySearch(cumulative, target);
+        return Math.min(index < 0 ? -index - 1 : index, cumulative.length - 1);
+    }
+}
@@ -0,0 +1,80 @@
+package twitapp.jmh;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongUnaryOperator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// directoryBench runs the DirectoryBenchmark operations under JMH, on directories generated the same way:
+// a random group tree, users spread over it and follows picked with Zipf popularity. every parameter
+// combination gets its own fork, so the timeline strategy is set before the application classes load.
+// the application lives in the default package, so it is reached through JmhWorkloads by name.
+// postTweetAndFanout is left to DirectoryBenchmark, which counts draining the fan-out in the iteration time;
+// here the drain runs in the iteration teardown, outside the measurement, so posts do not pile up.
+// usage: mvn -B -Pjmh package && java -jar target/benchmarks.jar -rf json -rff target/jmh-result.json
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Dtwitapp.persist=false"})
+public class DirectoryBench {
+    @Param({"1000", "100000"})
+    public int users;
+
+    @Param({"100"})
+    public int groups;
+
+    @Param({"20"})
+    public int follows;
+
+    @Param({"0", "1.1"})
+    public double zipf;
+
+    @Param({"hybrid"})
+    public String timeline;
+
+    @Param({"postTweet", "readNewsFeed", "findUserById", "validateIds", "countTotals", "getLastUpdateUserId",
+            "lastUpdateWalk", "recountTotals", "collectEntities", "findNode"})
+    public String operation;
+
+    @Param({"42"})
+    public long seed;
+
+    private LongUnaryOperator op; // the operation, called through a JDK interface
+    private Runnable afterIteration; // finishes the work an iteration started
+    private long sequence; // operation number passed to op
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        System.setProperty("twitapp.timeline", timeline); // before TwitUser loads
+        Class<?> workloads = Class.forName("JmhWorkloads");
+        workloads.getMethod("build", int.class, int.class, int.class, double.class, long.class)
+                .invoke(null, users, groups, follows, zipf, seed);
+        op = (LongUnaryOperator) workloads.getMethod("operation", String.class, long.class)
+                .invoke(null, operation, seed);
+        afterIteration = (Runnable) op;
+    }
+
+    @Benchmark
+    public long run() {
+        return op.applyAsLong(sequence++); // returned, so JMH consumes it and the work cannot be dropped
+    }
+
+    @TearDown(Level.Iteration)
+    public void finishIteration() {
+        afterIteration.run();
+    }
+}